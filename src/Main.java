@@ -1,7 +1,10 @@
 import java.io.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import mips.*;
+import mips.engine.*;
 import mips.entity.*;
 import mips.exception.*;
 
@@ -16,10 +19,26 @@ public class Main {
 	 * 
 	 * @param args
 	 *            The assembly source file (only the first argument is used). If no arguments are given, the default file is used.
+	 *            With "--profile", the simulation is profiled and the source is printed with the execution counts.
+	 *            With "--watch", the source is assembled and simulated again each time the file is changed.
 	 */
 	public static void main(String[] args) {
 		String sourceCode, assembledCode, disassembledCode, reassembledCode;
-		String filePath = args.length > 0 ? args[0] : "multiplication.s";
+		String filePath = "multiplication.s";
+		boolean profiling = false, watching = false;
+		for (int i = args.length - 1; 0 <= i; i--) {
+			if (args[i].equals("--profile")) {
+				profiling = true;
+			} else if (args[i].equals("--watch")) {
+				watching = true;
+			} else {
+				filePath = args[i];
+			}
+		}
+		if (watching) {
+			watch(filePath, profiling);
+			return;
+		}
 		Assembler assembler = new Assembler();
 		Disassembler disassembler = new Disassembler();
 		Simulator simulator = new Simulator();
@@ -54,10 +73,10 @@ public class Main {
 		try {
 			disassembler.decode(assembledCode);
 		} catch (SyntaxException e) {
-			System.err.println(e.getMessage());
+			printErrors(e);
 			return;
 		} catch (InvalidInstructionException e) {
-			System.err.println(e.getMessage());
+			printErrors(e);
 			return;
 		}
 		disassembledCode = disassembler.disassemble();
@@ -85,33 +104,132 @@ public class Main {
 		try {
 			simulator.decode(assembledCode);
 		} catch (SyntaxException e) {
-			System.err.println(e.getMessage());
+			printErrors(e);
 			return;
 		} catch (InvalidInstructionException e) {
-			System.err.println(e.getMessage());
+			printErrors(e);
+			return;
+		}
+		if (profiling) {
+			// the decoded binary code knows nothing about the source lines, so use the program from the Assembler
+			try {
+				simulator.load(assembler.toProgram());
+			} catch (LabelNotFoundException e) {
+				System.err.println(e.getMessage());
+				return;
+			}
+			simulator.setProfiling(true);
+		}
+		simulate(simulator, sourceCode);
+	}
+
+	/**
+	 * Assembles and simulates the source each time the file is changed, parsing only the changed lines.
+	 */
+	private static void watch(String filePath, boolean profiling) {
+		Path path = Paths.get(filePath).toAbsolutePath();
+		IncrementalAssembler assembler = new IncrementalAssembler();
+		WatchService watcher;
+		try {
+			watcher = path.getFileSystem().newWatchService();
+			path.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+		} catch (IOException e) {
+			System.err.println("Cannot watch " + filePath + ": " + e.getMessage());
 			return;
 		}
+
+		while (true) {
+			String sourceCode = null;
+			try {
+				sourceCode = loadFile(filePath);
+			} catch (FileNotFoundException e) {
+				System.err.println("File not found: " + filePath);
+			}
+			if (sourceCode != null) {
+				try {
+					long start = System.nanoTime();
+					int parsed = assembler.update(sourceCode);
+					Program program = assembler.toProgram();
+					long millis = (System.nanoTime() - start) / 1000000;
+					System.out.println("===== Assembled (" + parsed + " of " + assembler.getLineCount() + " lines parsed, "
+							+ assembler.getRelinkedCount() + " jumps resolved, " + millis + " ms) =====");
+					Simulator simulator = new Simulator(program);
+					simulator.setProfiling(profiling);
+					simulate(simulator, sourceCode);
+				} catch (SyntaxException e) {
+					System.err.println(e.getMessage());
+				} catch (LabelNotFoundException e) {
+					System.err.println(e.getMessage());
+				}
+			}
+
+			System.out.println("===== Watching " + filePath + " (Ctrl-C to stop) =====");
+			try {
+				waitForChange(watcher, path.getFileName());
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private static void waitForChange(WatchService watcher, Path fileName) throws InterruptedException {
+		boolean changed = false;
+		while (!changed) {
+			WatchKey key = watcher.take();
+			do {
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (fileName.equals(event.context()) || (event.kind() == StandardWatchEventKinds.OVERFLOW)) {
+						changed = true;
+					}
+				}
+				key.reset();
+				// an editor may write the file in several steps, so wait for them to finish
+				key = watcher.poll(100, TimeUnit.MILLISECONDS);
+			} while (key != null);
+		}
+	}
+
+	private static void simulate(Simulator simulator, String sourceCode) {
+		boolean profiling = (simulator.getProfile() != null);
 		simulator.setMemory(0, 5);
 		simulator.setMemory(4, 7);
-		Thread t = new Thread(simulator);
-		t.start();
+		SimulationResult result;
 		try {
-			t.join(1000); // wait for 1 second
-			if (t.isAlive()) {
-				// still running, wait for 3 seconds
-				System.err.println("Simulation is running, will be killed in 3 seconds...");
-				t.join(3000);
-				simulator.kill();
+			result = simulator.run(Long.MAX_VALUE, 1000); // run for 1 second
+			if (result.getStatus() == SimulationResult.STATUS.TIMEOUT) {
+				// still running, run for 3 more seconds
+				System.err.println("Simulation is running, will be stopped in 3 seconds...");
+				result = simulator.run(Long.MAX_VALUE, 3000);
 			}
-		} catch (InterruptedException e) {
+		} catch (SimulationException e) {
+			System.err.println(e.getMessage());
 			return;
 		}
 		System.out.println("===== Simulation Result =====");
+		System.out.println("Status = " + result.getStatus() + " (" + result.getSteps() + " steps)");
 		System.out.println("PC = " + simulator.getPc() + " * 4");
 		RegisterFile regfile = simulator.getRegfile();
 		for (int i = 0, size = regfile.getSize(); i < size; i++) {
 			System.out.println("Regfile[" + i + "] = " + regfile.get(i));
 		}
+
+		if (profiling) {
+			System.out.println("===== Profile =====");
+			System.out.print(simulator.getProfile().report(10));
+			System.out.println("===== Annotated Source =====");
+			System.out.print(simulator.getProfile().annotate(sourceCode));
+		}
+	}
+
+	/**
+	 * Prints the error, and the errors on the other lines when all the lines were decoded.
+	 */
+	private static void printErrors(Exception e) {
+		System.err.println(e.getMessage());
+		for (Throwable suppressed : e.getSuppressed()) {
+			System.err.println(suppressed.getMessage());
+		}
 	}
 
 	private static String loadFile(String filePath) throws FileNotFoundException {
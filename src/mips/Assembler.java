@@ -1,10 +1,13 @@
 package mips;
 
+import java.nio.*;
 import java.util.*;
 
 import static mips.utils.Utilites.*;
+import mips.engine.Program;
 import mips.entity.*;
 import mips.exception.*;
+import mips.utils.*;
 
 /**
  * MIPS Assembler
@@ -43,87 +46,151 @@ public class Assembler {
 	 *             If there was a syntax error in the source
 	 */
 	public void parse(String src) throws SyntaxException {
-		Scanner scanner = new Scanner(src);
+		char[] buf = src.toCharArray();
+		Lexer lexer = new Lexer();
 
 		// "lineNo" stores the line number of the source code.
 		// This includes lines without any codes (e.g. empty or comment-only line).
 		// "stepNo" stores the actual step number in contrast.
 		int lineNo = 0, stepNo = 0;
 
-		while (scanner.hasNext()) {
+		for (int start = 0; start < buf.length;) {
 			// go to next line
 			lineNo++;
-			String line = scanner.nextLine();
+			int end = start;
+			while ((end < buf.length) && !isLineTerminator(buf[end])) {
+				end++;
+			}
+			int next = end + 1;
+			if ((end + 1 < buf.length) && (buf[end] == '\r') && (buf[end + 1] == '\n')) {
+				next++;
+			}
 
 			// Parse each line in form of [[label:] code args][;comment]
-			String code, label, mnemonic;
-			String[] args;
+			// if it was an empty line, continue to the next line
+			if (lexer.lex(buf, start, end)) {
+				Instruction inst = parseLine(lexer, lineNo, stepNo, labelMap);
+				if (inst != null) {
+					// arguments is in correct format, add it to instruction list
+					instList.add(inst);
 
-			// Remove comments
-			int commentLoc = line.indexOf(';');
-			if (commentLoc == -1) {
-				commentLoc = line.length();
+					// increase "stepNo" because there was an instruction
+					stepNo++;
+				}
 			}
-			code = line.substring(0, commentLoc);
-			// comment = line.substring(commentLoc);
+			start = next;
+		}
+	}
 
-			// if it was an empty line, continue to the next line
-			if (code.trim().equals("")) {
-				continue;
-			}
+	/**
+	 * Parses the line split by the lexer.
+	 * 
+	 * @param lexer
+	 *            the lexer holding the line
+	 * @param lineNo
+	 *            the line number
+	 * @param stepNo
+	 *            the step number of the instruction on the line
+	 * @param labelMap
+	 *            the map to add the label on the line to (null not to add it)
+	 * @return the instruction on the line (null if the line only has a label)
+	 * @throws SyntaxException
+	 *             If there was a syntax error in the line
+	 */
+	static Instruction parseLine(Lexer lexer, int lineNo, int stepNo, Map<String, Integer> labelMap)
+			throws SyntaxException {
+		// The line must be divided into 1 or 3 parts
+		if ((lexer.getParts() != 1) && (lexer.getParts() != 3)) {
+			throw new SyntaxException("No arguments given (maybe you're missing head tab/space?)", lineNo);
+		}
 
-			// Split label (empty if it doesn't exist), code and arguments
-			String[] codeParts = code.split("[\t ]+", 3);
-			// and trim them
-			for (int i = 0; i < codeParts.length; i++) {
-				codeParts[i] = codeParts[i].trim();
+		// Process label names
+		if (lexer.hasLabel()) {
+			// label couldn't be a integer as it is confusing with address
+			if (lexer.isLabelIntegerForm()) {
+				throw new SyntaxException("Label cannot be a integer (" + lexer.getLabel() + ")", lineNo);
 			}
-
-			// The line must be divided into 1 or 3 parts
-			if ((codeParts.length != 1) && (codeParts.length != 3)) {
-				throw new SyntaxException("No arguments given (maybe you're missing head tab/space?)", lineNo);
+			// the label is in the correct format, so add it to the label map
+			if (labelMap != null) {
+				labelMap.put(lexer.getLabel(), stepNo);
 			}
+		} else if (!lexer.isLabelEmpty()) {
+			// not label && not empty
+			throw new SyntaxException("Label must be followed by \":\" ( " + lexer.getLabelPart() + ")", lineNo);
+		}
 
-			// Process label names
-			label = codeParts[0]; // this may be either "<label>:" or empty
-			if (label.endsWith(":")) {
-				label = label.substring(0, label.length() - 1); // remove ":"
-				// label couldn't be a integer as it is confusing with address
-				if (isIntegerForm(label)) {
-					throw new SyntaxException("Label cannot be a integer (" + label + ")", lineNo);
-				}
-				// the label is in the correct format, so add it to the label map
-				labelMap.put(label, stepNo);
-			} else if (!label.equals("")) {
-				// not label && not empty
-				throw new SyntaxException("Label must be followed by \":\" ( " + label + ")", lineNo);
+		// if the line has an actual instruction
+		// (otherwise it only has a label)
+		if (lexer.getParts() == 3) {
+			// try to find mnemonic and create new instance of Instruction
+			Instruction.INST kind = lexer.getInst();
+			if (kind == null) {
+				// no such mnemonic
+				throw new SyntaxException("Invalid mnemonic (" + lexer.getMnemonic() + ")", lineNo);
 			}
+			Instruction inst = Instruction.createInstruction(kind, lineNo, stepNo);
 
-			// if the line has an actual instruction
-			// (otherwise it only has a label)
-			if (codeParts.length == 3) {
-				Instruction inst;
-				mnemonic = codeParts[1];
-				// split arguments by comma
-				args = codeParts[2].split(",[\t ]*");
-				try {
-					// try to find mnemonic and create new instance of Instruction
-					inst = Instruction.createInstruction(Instruction.getInstByMnemonic(mnemonic), lineNo, stepNo);
-				} catch (IllegalArgumentException e) {
-					// no such mnemonic
-					throw new SyntaxException("Invalid mnemonic (" + mnemonic + ")", lineNo);
-				}
+			// parse the arguments
+			inst.parseArgs(lexer);
+			return inst;
+		}
+		return null;
+	}
 
-				// parse the arguments
-				inst.parseArgs(args);
-				
-				// arguments is in correct format, add it to instruction list
-				instList.add(inst);
-				
-				// increase "stepNo" because there was an instruction
-				stepNo++;
-			}
+	/**
+	 * Encodes the instruction, leaving the target of the jump zero to be set by {@link #link(int, int, int)} once the
+	 * label is resolved.
+	 * 
+	 * @param inst
+	 *            the instruction jumping to a label
+	 * @return the binary code without the target
+	 */
+	static int encodeUnlinked(Instruction inst) {
+		try {
+			return link(inst.toWord(Collections.singletonMap(inst.getLabel(), 0)), 0, -1);
+		} catch (LabelNotFoundException e) {
+			// the label is in the map
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Sets the target of the jump or branch in the same way as {@link Instruction#toWord(Map)} does.
+	 * 
+	 * @param word
+	 *            the binary code of the jump or branch
+	 * @param jumpAddr
+	 *            the address of the label
+	 * @param stepNo
+	 *            the step number of the instruction
+	 * @return the binary code with the target
+	 */
+	static int link(int word, int jumpAddr, int stepNo) {
+		Instruction.INST inst = Instruction.getInstByCode(word);
+		if ((inst == Instruction.INST.J) || (inst == Instruction.INST.JAL)) {
+			return (word & ~0x3FFFFFF) | (jumpAddr & 0x3FFFFFF);
+		}
+		return (word & ~0xFFFF) | ((jumpAddr - 1 - stepNo) & 0xFFFF);
+	}
+
+	static boolean isLineTerminator(char c) {
+		return (c == '\n') || (c == '\r') || (c == '\u0085') || (c == '\u2028') || (c == '\u2029');
+	}
+
+	/**
+	 * Assembles the previously parsed instructions into a decoded program, which can be run by any number of
+	 * Simulators without decoding the binary code for each of them.
+	 * 
+	 * @return the decoded program
+	 * @throws LabelNotFoundException
+	 *             If undefined label was used
+	 */
+	public Program toProgram() throws LabelNotFoundException {
+		List<Instruction> decoded = new ArrayList<Instruction>(instList.size());
+		for (Instruction inst : instList) {
+			decoded.add(inst.resolve(labelMap));
 		}
+		return new Program(decoded);
 	}
 
 	/**
@@ -134,14 +201,123 @@ public class Assembler {
 	 *             If undefined label was used
 	 */
 	public String assemble() throws LabelNotFoundException {
-		StringBuffer strbuf = new StringBuffer(instList.size());
+		return format(assembleWords());
+	}
+
+	/**
+	 * Formats the binary code in the format of {@link #assemble()}.
+	 * 
+	 * @param words
+	 *            the binary code of each instruction
+	 * @return the binary code (Altera-friendly format)
+	 */
+	static String format(int[] words) {
+		StringBuffer strbuf = new StringBuffer(words.length * 32);
+		for (int i = 0; i < words.length; i++) {
+			// e.g., " 1 :     20010004; % (04) %"
+			String memcnt = Integer.toHexString(i).toUpperCase();
+			String addr = Integer.toHexString(i * 4).toUpperCase();
+			if (i < 16) {
+				strbuf.append(' ');
+			}
+			strbuf.append(memcnt);
+			strbuf.append(" :     ");
+			strbuf.append(wordToHexString(words[i]));
+			strbuf.append("; % (");
+			if (i * 4 < 16) {
+				strbuf.append('0');
+			}
+			strbuf.append(addr);
+			strbuf.append(") %\n");
+		}
+		return strbuf.toString();
+	}
+
+	/**
+	 * Assembles the previously parsed instructions into binary code.
+	 * 
+	 * @return the binary code of each instruction (the index in the array is the step number)
+	 * @throws LabelNotFoundException
+	 *             If undefined label was used
+	 */
+	public int[] assembleWords() throws LabelNotFoundException {
+		int[] words = new int[instList.size()];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = instList.get(i).toWord(labelMap);
+		}
+		return words;
+	}
+
+	/**
+	 * Assembles the previously parsed instructions into the buffer. The words are written from the current position
+	 * of the buffer in its byte order.
+	 * 
+	 * @param buffer
+	 *            the buffer with at least 4 bytes remaining per instruction
+	 * @throws LabelNotFoundException
+	 *             If undefined label was used
+	 */
+	public void assemble(ByteBuffer buffer) throws LabelNotFoundException {
 		for (int i = 0, size = instList.size(); i < size; i++) {
+			buffer.putInt(instList.get(i).toWord(labelMap));
+		}
+	}
+
+	/**
+	 * Assembles the previously parsed instructions into a module to be combined with other modules by the
+	 * {@link Linker}. The labels which are not defined in the source are resolved by the Linker.
+	 * 
+	 * @param name
+	 *            the name of the module
+	 * @return the module
+	 */
+	public ObjectModule assembleModule(String name) {
+		int size = instList.size();
+		int[] words = new int[size];
+		int relocations = 0;
+		int[] relocStep = new int[16];
+		for (int i = 0; i < size; i++) {
 			Instruction inst = instList.get(i);
-			String memcnt = (i < 16 ? " " : "") + Integer.toHexString(i).toUpperCase();
-			String addr = (i * 4 < 16 ? "0" : "") + Integer.toHexString(i * 4).toUpperCase();
-			String binary = inst.toHexString(labelMap);
-			strbuf.append(memcnt + " :     " + binary + "; % (" + addr + ") %\n");
+			String label = inst.getLabel();
+			Instruction.INST kind = inst.getInst();
+			if ((label == null)
+					|| (labelMap.containsKey(label) && (kind != Instruction.INST.J) && (kind != Instruction.INST.JAL))) {
+				try {
+					words[i] = inst.toWord(labelMap);
+				} catch (LabelNotFoundException e) {
+					// the label is in the map
+					throw new IllegalStateException(e.getMessage());
+				}
+			} else {
+				// the address of the label is not known until the module is linked
+				words[i] = encodeUnlinked(inst);
+				if (relocations == relocStep.length) {
+					relocStep = Arrays.copyOf(relocStep, relocations * 2);
+				}
+				relocStep[relocations++] = i;
+			}
 		}
-		return strbuf.toString();
+
+		relocStep = Arrays.copyOf(relocStep, relocations);
+		String[] relocSymbol = new String[relocations];
+		boolean[] relocExternal = new boolean[relocations];
+		int[] relocLine = new int[relocations];
+		for (int i = 0; i < relocations; i++) {
+			Instruction inst = instList.get(relocStep[i]);
+			relocSymbol[i] = inst.getLabel();
+			relocExternal[i] = !labelMap.containsKey(relocSymbol[i]);
+			relocLine[i] = inst.getLineNo();
+		}
+		return new ObjectModule(name, words, new HashMap<String, Integer>(labelMap), relocStep, relocSymbol,
+				relocExternal, relocLine);
+	}
+
+	/**
+	 * Returns the labels defined in the previously parsed source.
+	 * 
+	 * @return the unmodifiable map of label and address
+	 */
+	public Map<String, Integer> getLabels() {
+		return Collections.unmodifiableMap(labelMap);
 	}
 }
@@ -0,0 +1,326 @@
+package mips;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.security.*;
+import java.util.*;
+
+import mips.exception.*;
+
+/**
+ * Cache of Assembled Sources
+ * 
+ * Keeps the binary code and the labels of assembled sources in a directory, so that a source which has been assembled
+ * before is not parsed again. Each entry is a file named by the SHA-256 hash of the source (and the version of the
+ * Assembler), so that the entries can be shared by any number of processes. When the total size of the entries
+ * exceeds the limit, the least recently used ones are deleted.
+ * 
+ * Sources with errors are not cached, and the errors are reported by the {@link Assembler} each time.
+ */
+public class AssemblyCache {
+	/**
+	 * The default limit of the total size of the entries (in bytes).
+	 */
+	public static final long DEFAULT_MAX_SIZE = 64L << 20;
+
+	// increase when the binary code or the format of the entries changes
+	private static final int VERSION = 1;
+
+	private static final int MAGIC = 0x4D495043; // "MIPC"
+	private static final String SUFFIX = ".bin";
+	private static final String TEMP_PREFIX = "entry";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	// temporary files older than this are left by writers which did not finish
+	private static final long STALE_TEMP_MILLIS = 10 * 60 * 1000;
+
+	private final Path directory;
+	private final long maxSize;
+	private Map<String, Integer> labelMap = new HashMap<String, Integer>();
+	private long hits, misses;
+
+	/**
+	 * Constructs new AssemblyCache with the default size limit.
+	 * 
+	 * @param directory
+	 *            the directory to store the entries, which is created if it does not exist
+	 * @throws IOException
+	 *             If the directory could not be created
+	 */
+	public AssemblyCache(Path directory) throws IOException {
+		this(directory, DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Constructs new AssemblyCache.
+	 * 
+	 * @param directory
+	 *            the directory to store the entries, which is created if it does not exist
+	 * @param maxSize
+	 *            the limit of the total size of the entries (in bytes)
+	 * @throws IOException
+	 *             If the directory could not be created
+	 */
+	public AssemblyCache(Path directory, long maxSize) throws IOException {
+		if (maxSize < 0) {
+			throw new IllegalArgumentException("Invalid cache size (" + maxSize + ")");
+		}
+		this.directory = Files.createDirectories(directory);
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Assembles the source file, or reads the result from the cache.
+	 * 
+	 * @param source
+	 *            the source file
+	 * @return the binary code of each instruction
+	 * @throws IOException
+	 *             If the source could not be read
+	 * @throws SyntaxException
+	 *             If there was a syntax error in the source
+	 * @throws LabelNotFoundException
+	 *             If undefined label was used
+	 */
+	public int[] assemble(Path source) throws IOException, SyntaxException, LabelNotFoundException {
+		return assemble(new String(Files.readAllBytes(source), Charset.defaultCharset()));
+	}
+
+	/**
+	 * Assembles the source, or reads the result from the cache.
+	 * 
+	 * @param src
+	 *            the assembler source
+	 * @return the binary code of each instruction
+	 * @throws SyntaxException
+	 *             If there was a syntax error in the source
+	 * @throws LabelNotFoundException
+	 *             If undefined label was used
+	 */
+	public int[] assemble(String src) throws SyntaxException, LabelNotFoundException {
+		Path entry = directory.resolve(hash(src) + SUFFIX);
+		int[] words = read(entry);
+		if (words != null) {
+			hits++;
+			return words;
+		}
+
+		misses++;
+		Assembler assembler = new Assembler();
+		assembler.parse(src);
+		words = assembler.assembleWords();
+		labelMap = new HashMap<String, Integer>(assembler.getLabels());
+		write(entry, words);
+		return words;
+	}
+
+	/**
+	 * Returns the labels defined in the last assembled source.
+	 * 
+	 * @return the unmodifiable map of label and address
+	 */
+	public Map<String, Integer> getLabels() {
+		return Collections.unmodifiableMap(labelMap);
+	}
+
+	/**
+	 * Returns the number of sources read from the cache.
+	 * 
+	 * @return the number of sources
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of sources assembled as they were not in the cache.
+	 * 
+	 * @return the number of sources
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Deletes all the entries.
+	 * 
+	 * @throws IOException
+	 *             If an I/O error occurred
+	 */
+	public void clear() throws IOException {
+		for (Path entry : listEntries()) {
+			Files.deleteIfExists(entry);
+		}
+		for (Path temp : listFiles(TEMP_PREFIX + "*" + TEMP_SUFFIX)) {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static String hash(String src) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform supports SHA-256
+			throw new IllegalStateException(e.getMessage());
+		}
+		digest.update((byte) VERSION);
+		byte[] bytes = digest.digest(src.getBytes(StandardCharsets.UTF_8));
+		StringBuffer strbuf = new StringBuffer(bytes.length * 2);
+		for (byte b : bytes) {
+			strbuf.append(Character.forDigit((b >>> 4) & 0xF, 16));
+			strbuf.append(Character.forDigit(b & 0xF, 16));
+		}
+		return strbuf.toString();
+	}
+
+	/**
+	 * Reads the entry, or returns null if there is no valid entry.
+	 */
+	private int[] read(Path entry) {
+		int[] words;
+		try {
+			SeekableByteChannel channel = Files.newByteChannel(entry);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+			try {
+				long size = channel.size();
+				if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+					throw new IOException("Invalid cache entry");
+				}
+				int count = in.readInt();
+				if ((count < 0) || (size < 12 + 4L * count)) {
+					// the count does not match the size of the entry
+					throw new IOException("Invalid cache entry");
+				}
+				words = new int[count];
+				for (int i = 0; i < words.length; i++) {
+					words[i] = in.readInt();
+				}
+				Map<String, Integer> labels = new HashMap<String, Integer>();
+				for (int i = in.readInt(); 0 < i; i--) {
+					String label = in.readUTF();
+					labels.put(label, in.readInt());
+				}
+				labelMap = labels;
+			} finally {
+				in.close();
+			}
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			// a broken entry is replaced by the new one
+			return null;
+		}
+
+		// mark the entry as recently used
+		try {
+			Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			// the entry may have been evicted by another process
+		}
+		return words;
+	}
+
+	private void write(Path entry, int[] words) {
+		try {
+			// write to a temporary file first, so that other processes never see a partial entry
+			Path temp = Files.createTempFile(directory, TEMP_PREFIX, TEMP_SUFFIX);
+			try {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)));
+				try {
+					out.writeInt(MAGIC);
+					out.writeInt(VERSION);
+					out.writeInt(words.length);
+					for (int word : words) {
+						out.writeInt(word);
+					}
+					out.writeInt(labelMap.size());
+					for (Map.Entry<String, Integer> label : labelMap.entrySet()) {
+						out.writeUTF(label.getKey());
+						out.writeInt(label.getValue());
+					}
+				} finally {
+					out.close();
+				}
+				Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+			evict();
+		} catch (IOException e) {
+			// the cache is only an optimization, so the result is returned anyway
+		}
+	}
+
+	/**
+	 * Deletes the least recently used entries until the total size is within the limit.
+	 */
+	private void evict() throws IOException {
+		deleteStaleTemps();
+
+		final Map<Path, BasicFileAttributes> attributes = new HashMap<Path, BasicFileAttributes>();
+		long total = 0;
+		for (Path entry : listEntries()) {
+			try {
+				BasicFileAttributes attr = Files.readAttributes(entry, BasicFileAttributes.class);
+				attributes.put(entry, attr);
+				total += attr.size();
+			} catch (NoSuchFileException e) {
+				// deleted by another process
+			}
+		}
+		if (total <= maxSize) {
+			return;
+		}
+
+		List<Path> entries = new ArrayList<Path>(attributes.keySet());
+		Collections.sort(entries, new Comparator<Path>() {
+			public int compare(Path a, Path b) {
+				return attributes.get(a).lastModifiedTime().compareTo(attributes.get(b).lastModifiedTime());
+			}
+		});
+		for (Path entry : entries) {
+			if (total <= maxSize) {
+				break;
+			}
+			Files.deleteIfExists(entry);
+			total -= attributes.get(entry).size();
+		}
+	}
+
+	/**
+	 * Deletes the temporary files left by writers which crashed before moving them to the entries.
+	 */
+	private void deleteStaleTemps() throws IOException {
+		long limit = System.currentTimeMillis() - STALE_TEMP_MILLIS;
+		for (Path temp : listFiles(TEMP_PREFIX + "*" + TEMP_SUFFIX)) {
+			try {
+				if (Files.getLastModifiedTime(temp).toMillis() < limit) {
+					Files.deleteIfExists(temp);
+				}
+			} catch (NoSuchFileException e) {
+				// moved or deleted by another process
+			}
+		}
+	}
+
+	private List<Path> listEntries() throws IOException {
+		return listFiles("*" + SUFFIX);
+	}
+
+	private List<Path> listFiles(String glob) throws IOException {
+		List<Path> files = new ArrayList<Path>();
+		DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob);
+		try {
+			for (Path file : stream) {
+				files.add(file);
+			}
+		} finally {
+			stream.close();
+		}
+		return files;
+	}
+}
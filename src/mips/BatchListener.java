@@ -0,0 +1,17 @@
+package mips;
+
+import mips.entity.*;
+
+/**
+ * Receives the results of a batch simulation.
+ */
+public interface BatchListener {
+	/**
+	 * Called when the simulation for an input is completed. Calls are never made concurrently, but they may be made
+	 * from different threads and not in the order of the inputs.
+	 * 
+	 * @param result
+	 *            the result of the simulation
+	 */
+	void completed(BatchResult result);
+}
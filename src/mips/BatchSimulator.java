@@ -0,0 +1,278 @@
+package mips;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import mips.engine.*;
+import mips.entity.*;
+import mips.exception.*;
+
+/**
+ * MIPS Batch Simulator
+ * 
+ * Runs one program against many inputs on a pool of worker threads. Each input is a sequence of words written into
+ * the memory from the input address (e.g., {5, 7} is the same as setMemory(0, 5) and setMemory(4, 7)). Each worker
+ * reuses its Simulator (and the blocks translated by the engine) for all the inputs it takes.
+ * 
+ * When more than one lane is set, each worker takes that many inputs at once and runs them in lockstep by the
+ * {@link LockstepInterpreter}, which suits programs whose control flow does not depend much on the input.
+ */
+public class BatchSimulator {
+	// number of instructions executed in each lane between checks of the time limit
+	private static final long CHUNK_STEPS = 1 << 16;
+
+	private final Program program;
+	private Simulator.ENGINE engine = Simulator.ENGINE.FLAT;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private long maxSteps = Long.MAX_VALUE;
+	private long timeoutMillis = 0;
+	private int inputAddress = 0;
+	private int resultAddress = 0;
+	private int resultWords = 0;
+	private int lanes = 1;
+
+	/**
+	 * Constructs new BatchSimulator object.
+	 * 
+	 * @param program
+	 *            the program to run
+	 */
+	public BatchSimulator(Program program) {
+		this.program = program;
+	}
+
+	/**
+	 * Selects the execution engine (FLAT by default).
+	 * 
+	 * @param engine
+	 *            the execution engine
+	 */
+	public void setEngine(Simulator.ENGINE engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * Sets the number of worker threads (the number of available processors by default).
+	 * 
+	 * @param threads
+	 *            the number of worker threads
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Invalid number of threads (" + threads + ")");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Sets the number of inputs run in lockstep by each worker (1 by default, which runs the inputs one by one on the
+	 * selected engine).
+	 * 
+	 * @param lanes
+	 *            the number of lanes
+	 */
+	public void setLanes(int lanes) {
+		if (lanes < 1) {
+			throw new IllegalArgumentException("Invalid number of lanes (" + lanes + ")");
+		}
+		this.lanes = lanes;
+	}
+
+	/**
+	 * Sets the budget for the simulation of each input.
+	 * 
+	 * @param maxSteps
+	 *            the maximum number of instructions to execute
+	 * @param timeoutMillis
+	 *            the maximum time to run in milliseconds (0 for no time limit)
+	 */
+	public void setLimit(long maxSteps, long timeoutMillis) {
+		this.maxSteps = maxSteps;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Sets the memory address where the inputs are written.
+	 * 
+	 * @param address
+	 *            the address of the first word of the input
+	 */
+	public void setInputAddress(int address) {
+		this.inputAddress = address;
+	}
+
+	/**
+	 * Sets the memory range reported in the results.
+	 * 
+	 * @param address
+	 *            the address of the first word
+	 * @param words
+	 *            the number of words
+	 */
+	public void setResultRange(int address, int words) {
+		this.resultAddress = address;
+		this.resultWords = words;
+	}
+
+	/**
+	 * Runs the program for each input. This method returns when all the inputs are simulated.
+	 * 
+	 * @param inputs
+	 *            the inputs, which are taken one by one as the workers become available
+	 * @param listener
+	 *            the listener to receive the results
+	 * @return the throughput of the batch
+	 * @throws InterruptedException
+	 *             If the current thread was interrupted while waiting for the workers
+	 */
+	public BatchStatistics run(final Iterator<int[]> inputs, final BatchListener listener)
+			throws InterruptedException {
+		final AtomicLong nextIndex = new AtomicLong();
+		final AtomicLong failures = new AtomicLong();
+		final AtomicLong totalSteps = new AtomicLong();
+		final AtomicBoolean aborted = new AtomicBoolean();
+		long start = System.nanoTime();
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<?>> workers = new ArrayList<Future<?>>(threads);
+		try {
+			for (int i = 0; i < threads; i++) {
+				workers.add(pool.submit(new Runnable() {
+					public void run() {
+						try {
+							work();
+						} catch (RuntimeException e) {
+							aborted.set(true); // stop the other workers as well
+							throw e;
+						}
+					}
+
+					private void work() {
+						Simulator simulator = new Simulator(program);
+						simulator.setEngine(engine);
+						int[][] group = new int[lanes][];
+						while (!aborted.get()) {
+							int count = 0;
+							long index;
+							synchronized (inputs) {
+								while ((count < lanes) && inputs.hasNext()) {
+									group[count++] = inputs.next();
+								}
+								index = nextIndex.getAndAdd(count);
+							}
+							if (count == 0) {
+								return;
+							}
+							BatchResult[] results;
+							if (lanes == 1) {
+								results = new BatchResult[] { simulate(simulator, index, group[0]) };
+							} else {
+								results = simulateLockstep(index, group, count);
+							}
+							for (BatchResult result : results) {
+								if (result.getResult() == null) {
+									failures.incrementAndGet();
+								} else {
+									totalSteps.addAndGet(result.getResult().getSteps());
+								}
+								synchronized (listener) {
+									listener.completed(result);
+								}
+							}
+						}
+					}
+				}));
+			}
+			for (Future<?> worker : workers) {
+				try {
+					worker.get();
+				} catch (ExecutionException e) {
+					aborted.set(true);
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					}
+					if (cause instanceof Error) {
+						throw (Error) cause;
+					}
+					throw new IllegalStateException(cause);
+				}
+			}
+		} finally {
+			aborted.set(true);
+			pool.shutdownNow();
+		}
+		return new BatchStatistics(nextIndex.get(), failures.get(), totalSteps.get(), System.nanoTime() - start,
+				threads);
+	}
+
+	private BatchResult simulate(Simulator simulator, long index, int[] input) {
+		simulator.reset();
+		simulator.getMemory().write(inputAddress, input, 0, input.length);
+
+		SimulationResult result = null;
+		SimulationException exception = null;
+		try {
+			result = simulator.run(maxSteps, timeoutMillis);
+		} catch (SimulationException e) {
+			exception = e;
+		}
+
+		return createResult(index, result, exception, simulator.getRegfile(), simulator.getMemory());
+	}
+
+	private BatchResult[] simulateLockstep(long index, int[][] group, int count) {
+		Memory[] memories = new Memory[count];
+		for (int l = 0; l < count; l++) {
+			memories[l] = new Memory();
+			memories[l].write(inputAddress, group[l], 0, group[l].length);
+		}
+		LockstepInterpreter interpreter = new LockstepInterpreter(program.getFlatCode(), memories);
+
+		// run in chunks to observe the time limit
+		long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+		boolean timeout = false;
+		for (long steps = 0; steps < maxSteps; steps += CHUNK_STEPS) {
+			if (interpreter.run(Math.min(CHUNK_STEPS, maxSteps - steps)) == 0) {
+				break;
+			}
+			if ((0 < timeoutMillis) && (0 <= System.nanoTime() - deadline)) {
+				timeout = true;
+				break;
+			}
+		}
+
+		BatchResult[] results = new BatchResult[count];
+		for (int l = 0; l < count; l++) {
+			int pc = interpreter.getPc(l);
+			SimulationResult result = null;
+			SimulationException exception = null;
+			if (pc == program.size()) {
+				result = new SimulationResult(SimulationResult.STATUS.FINISHED, pc, interpreter.getSteps(l));
+			} else if (interpreter.isHalted(l)) {
+				result = new SimulationResult(SimulationResult.STATUS.HALTED, pc, interpreter.getSteps(l));
+			} else if ((pc < 0) || (program.size() < pc)) {
+				exception = new SimulationException("No instructions here", pc);
+			} else {
+				result = new SimulationResult(timeout ? SimulationResult.STATUS.TIMEOUT
+						: SimulationResult.STATUS.STEP_LIMIT, pc, interpreter.getSteps(l));
+			}
+			RegisterFile regfile = new RegisterFile(32);
+			interpreter.store(l, regfile);
+			results[l] = createResult(index + l, result, exception, regfile, memories[l]);
+		}
+		return results;
+	}
+
+	private BatchResult createResult(long index, SimulationResult result, SimulationException exception,
+			RegisterFile regfile, Memory mem) {
+		int[] registers = new int[regfile.getSize()];
+		for (int i = 0; i < registers.length; i++) {
+			registers[i] = regfile.get(i);
+		}
+		int[] memory = new int[resultWords];
+		mem.read(resultAddress, memory, 0, resultWords);
+		return new BatchResult(index, result, exception, registers, memory);
+	}
+}
@@ -1,5 +1,8 @@
 package mips;
 
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
 import java.util.*;
 
 import static mips.utils.Utilites.*;
@@ -43,6 +46,38 @@ public class Disassembler {
 		instList.addAll(decodeInstruction(src));
 	}
 
+	/**
+	 * Decodes the binary image, in which each instruction is a word of 4 bytes in the byte order of the buffer.
+	 * 
+	 * @param image
+	 *            the binary image
+	 * @throws SyntaxException
+	 *             If the size of the image was not a multiple of 4
+	 * @throws InvalidInstructionException
+	 *             If there was a invalid instruction in the image
+	 */
+	public void decode(ByteBuffer image) throws SyntaxException, InvalidInstructionException {
+		instList.addAll(decodeInstruction(image));
+	}
+
+	/**
+	 * Decodes the binary image file, which is mapped into memory instead of being read.
+	 * 
+	 * @param image
+	 *            the binary image file
+	 * @param order
+	 *            the byte order of the words in the file
+	 * @throws IOException
+	 *             If the file could not be mapped
+	 * @throws SyntaxException
+	 *             If the size of the image was not a multiple of 4
+	 * @throws InvalidInstructionException
+	 *             If there was a invalid instruction in the image
+	 */
+	public void decode(Path image, ByteOrder order) throws IOException, SyntaxException, InvalidInstructionException {
+		decode(mapImage(image, order));
+	}
+
 	/**
 	 * Disassembles the previously parsed instructions.
 	 * 
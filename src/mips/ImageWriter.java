@@ -0,0 +1,235 @@
+package mips;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * Writes binary code as a memory image.
+ * 
+ * The image is encoded into a reusable buffer and written in large blocks, without creating a string for each word.
+ * The formats are:
+ * <ul>
+ * <li>MIF: the Memory Initialization File, with the lines of {@link Assembler#assemble()} as its content</li>
+ * <li>INTEL_HEX: Intel HEX, one word per record addressed by the word (as the Quartus tools expect for 32-bit wide
+ * memories)</li>
+ * <li>RAW_BIG_ENDIAN, RAW_LITTLE_ENDIAN: 4 bytes per word</li>
+ * <li>READMEMH: 8 hex digits per line, to be read by $readmemh of Verilog</li>
+ * </ul>
+ */
+public class ImageWriter {
+	/**
+	 * Formats of images.
+	 */
+	public static enum FORMAT {
+		MIF, INTEL_HEX, RAW_BIG_ENDIAN, RAW_LITTLE_ENDIAN, READMEMH;
+	}
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int MAX_RECORD = 64; // the longest text written for a word
+
+	private static final byte[] UPPER = "0123456789ABCDEF".getBytes();
+	private static final byte[] LOWER = "0123456789abcdef".getBytes();
+
+	private final FORMAT format;
+	private final byte[] buf = new byte[BUFFER_SIZE];
+	private int pos;
+
+	/**
+	 * Constructs new ImageWriter.
+	 * 
+	 * @param format
+	 *            the format of images
+	 */
+	public ImageWriter(FORMAT format) {
+		this.format = format;
+	}
+
+	/**
+	 * Returns the format of images.
+	 * 
+	 * @return the format
+	 */
+	public FORMAT getFormat() {
+		return format;
+	}
+
+	/**
+	 * Writes the image to the file.
+	 * 
+	 * @param words
+	 *            the binary code of each instruction
+	 * @param path
+	 *            the file, which is created or overwritten
+	 * @throws IOException
+	 *             If an I/O error occurred
+	 */
+	public void write(int[] words, Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			write(words, channel);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Writes the image to the stream. The stream is not closed.
+	 * 
+	 * @param words
+	 *            the binary code of each instruction
+	 * @param out
+	 *            the stream
+	 * @throws IOException
+	 *             If an I/O error occurred
+	 */
+	public void write(int[] words, final OutputStream out) throws IOException {
+		write(words, new Output() {
+			@Override
+			void write(byte[] b, int len) throws IOException {
+				out.write(b, 0, len);
+			}
+		});
+		out.flush();
+	}
+
+	/**
+	 * Writes the image to the channel. The channel is not closed.
+	 * 
+	 * @param words
+	 *            the binary code of each instruction
+	 * @param channel
+	 *            the channel
+	 * @throws IOException
+	 *             If an I/O error occurred
+	 */
+	public void write(int[] words, final WritableByteChannel channel) throws IOException {
+		write(words, new Output() {
+			@Override
+			void write(byte[] b, int len) throws IOException {
+				ByteBuffer buffer = ByteBuffer.wrap(b, 0, len);
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+		});
+	}
+
+	private synchronized void write(int[] words, Output out) throws IOException {
+		pos = 0;
+		switch (format) {
+		case MIF:
+			putAscii("DEPTH = " + words.length + ";\nWIDTH = 32;\nADDRESS_RADIX = HEX;\nDATA_RADIX = HEX;\n"
+					+ "CONTENT\nBEGIN\n");
+			for (int i = 0; i < words.length; i++) {
+				reserve(out);
+				putMifLine(i, words[i]);
+			}
+			reserve(out);
+			putAscii("END;\n");
+			break;
+		case INTEL_HEX:
+			for (int i = 0; i < words.length; i++) {
+				reserve(out);
+				if (((i & 0xFFFF) == 0) && (i != 0)) {
+					// extended linear address
+					putHexRecord(0, 4, i >>> 16, 2);
+				}
+				putHexRecord(i & 0xFFFF, 0, words[i], 4);
+			}
+			reserve(out);
+			putAscii(":00000001FF\n");
+			break;
+		case RAW_BIG_ENDIAN:
+			for (int i = 0; i < words.length; i++) {
+				reserve(out);
+				buf[pos++] = (byte) (words[i] >>> 24);
+				buf[pos++] = (byte) (words[i] >>> 16);
+				buf[pos++] = (byte) (words[i] >>> 8);
+				buf[pos++] = (byte) words[i];
+			}
+			break;
+		case RAW_LITTLE_ENDIAN:
+			for (int i = 0; i < words.length; i++) {
+				reserve(out);
+				buf[pos++] = (byte) words[i];
+				buf[pos++] = (byte) (words[i] >>> 8);
+				buf[pos++] = (byte) (words[i] >>> 16);
+				buf[pos++] = (byte) (words[i] >>> 24);
+			}
+			break;
+		case READMEMH:
+			for (int i = 0; i < words.length; i++) {
+				reserve(out);
+				putHex(words[i], 8, LOWER);
+				buf[pos++] = '\n';
+			}
+			break;
+		}
+		if (0 < pos) {
+			out.write(buf, pos);
+		}
+	}
+
+	/**
+	 * Writes out the buffer if there is no room for another word.
+	 */
+	private void reserve(Output out) throws IOException {
+		if (buf.length - pos < MAX_RECORD) {
+			out.write(buf, pos);
+			pos = 0;
+		}
+	}
+
+	// e.g., " 1 :     20010004; % (04) %"
+	private void putMifLine(int i, int word) {
+		if (i < 16) {
+			buf[pos++] = ' ';
+		}
+		putHex(i, 1, UPPER);
+		putAscii(" :     ");
+		putHex(word, 8, LOWER);
+		putAscii("; % (");
+		putHex(i * 4, 2, UPPER);
+		putAscii(") %\n");
+	}
+
+	private void putHexRecord(int address, int type, int data, int length) {
+		int sum = length + (address >>> 8) + (address & 0xFF) + type;
+		for (int i = 0; i < length; i++) {
+			sum += (data >>> (i * 8)) & 0xFF;
+		}
+		buf[pos++] = ':';
+		putHex(length, 2, UPPER);
+		putHex(address, 4, UPPER);
+		putHex(type, 2, UPPER);
+		putHex(data, length * 2, UPPER);
+		putHex(-sum & 0xFF, 2, UPPER);
+		buf[pos++] = '\n';
+	}
+
+	/**
+	 * Puts the value as an unsigned hexadecimal with at least the given number of digits.
+	 */
+	private void putHex(int value, int minDigits, byte[] digits) {
+		int n = Math.max(minDigits, (35 - Integer.numberOfLeadingZeros(value)) >> 2);
+		for (int i = n - 1; 0 <= i; i--) {
+			buf[pos++] = digits[(value >>> (i * 4)) & 0xF];
+		}
+	}
+
+	private void putAscii(String str) {
+		for (int i = 0, length = str.length(); i < length; i++) {
+			buf[pos++] = (byte) str.charAt(i);
+		}
+	}
+
+	/**
+	 * The destination of the image.
+	 */
+	private static abstract class Output {
+		abstract void write(byte[] b, int len) throws IOException;
+	}
+}
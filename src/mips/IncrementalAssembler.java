@@ -0,0 +1,336 @@
+package mips;
+
+import java.util.*;
+
+import mips.engine.*;
+import mips.entity.*;
+import mips.exception.*;
+import mips.utils.*;
+
+/**
+ * MIPS Incremental Assembler
+ * 
+ * Keeps the result of the previous parse, so that an edited source can be assembled again without parsing all of it.
+ * The lines before and after the edited part are compared with the previous source, and only the lines between them
+ * are parsed. The binary code of the following instructions is moved to their new step numbers, and only the jumps
+ * and branches whose encoding changes (as the label or the instruction itself moved) are resolved again.
+ * 
+ * The result and the errors reported are the same as those of the {@link Assembler}.
+ */
+public class IncrementalAssembler {
+	// the lines of the previous source
+	private List<Line> lines = new ArrayList<Line>();
+
+	// the binary code of each instruction (jumps to undefined labels are left without the target)
+	private int[] words = new int[0];
+
+	// pairs of label and address
+	private Map<String, Integer> labelMap = new HashMap<String, Integer>();
+
+	// the first jump to an undefined label
+	private LabelNotFoundException labelError;
+
+	private int relinked;
+
+	/**
+	 * Parses the source, reusing the result of the previous parse for the lines which have not changed. If there was
+	 * a syntax error, the previous source is kept.
+	 * 
+	 * @param src
+	 *            the assembler source
+	 * @return the number of lines parsed
+	 * @throws SyntaxException
+	 *             If there was a syntax error in the source
+	 */
+	public int update(String src) throws SyntaxException {
+		// find the lines of the new source
+		int count = 0;
+		int[] starts = new int[Math.max(16, lines.size() + 16)];
+		int[] ends = new int[starts.length];
+		for (int start = 0, length = src.length(); start < length;) {
+			int end = start;
+			while ((end < length) && !Assembler.isLineTerminator(src.charAt(end))) {
+				end++;
+			}
+			if (count == starts.length) {
+				starts = Arrays.copyOf(starts, count * 2);
+				ends = Arrays.copyOf(ends, count * 2);
+			}
+			starts[count] = start;
+			ends[count] = end;
+			count++;
+			start = end + 1;
+			if ((end + 1 < length) && (src.charAt(end) == '\r') && (src.charAt(end + 1) == '\n')) {
+				start++;
+			}
+		}
+
+		// skip the lines which have not changed at the beginning and the end
+		int oldCount = lines.size();
+		int prefix = 0;
+		while ((prefix < oldCount) && (prefix < count)
+				&& lines.get(prefix).matches(src, starts[prefix], ends[prefix])) {
+			prefix++;
+		}
+		int suffix = 0;
+		while ((prefix + suffix < oldCount) && (prefix + suffix < count)) {
+			int i = count - 1 - suffix;
+			if (!lines.get(oldCount - 1 - suffix).matches(src, starts[i], ends[i])) {
+				break;
+			}
+			suffix++;
+		}
+
+		// parse the changed lines
+		Lexer lexer = new Lexer();
+		List<Line> parsed = new ArrayList<Line>(count - prefix - suffix);
+		for (int i = prefix; i < count - suffix; i++) {
+			parsed.add(parseLine(lexer, src.substring(starts[i], ends[i]), i + 1));
+		}
+
+		// move the binary code of the following instructions
+		int before = countSteps(lines, 0, prefix);
+		int removed = countSteps(lines, prefix, oldCount - suffix);
+		int added = countSteps(parsed, 0, parsed.size());
+		int after = words.length - before - removed;
+		int[] newWords = new int[before + added + after];
+		System.arraycopy(words, 0, newWords, 0, before);
+		System.arraycopy(words, before + removed, newWords, before + added, after);
+		int stepNo = before;
+		for (Line line : parsed) {
+			if (line.hasInstruction) {
+				newWords[stepNo++] = line.word;
+			}
+		}
+		words = newWords;
+		List<Line> removedLines = lines.subList(prefix, oldCount - suffix);
+		boolean moved = (added != removed) || hasLabel(removedLines) || hasLabel(parsed);
+		removedLines.clear();
+		lines.addAll(prefix, parsed);
+
+		if (moved || (labelError != null)) {
+			link(count - suffix, added - removed);
+		} else {
+			// no labels have moved, so only the parsed lines need to be resolved
+			relinked = 0;
+			stepNo = before;
+			for (int i = 0, size = parsed.size(); i < size; i++) {
+				Line line = parsed.get(i);
+				if (line.hasInstruction) {
+					link(line, prefix + i, stepNo, stepNo, labelMap);
+					stepNo++;
+				}
+			}
+		}
+		return parsed.size();
+	}
+
+	private static Line parseLine(Lexer lexer, String text, int lineNo) throws SyntaxException {
+		char[] buf = text.toCharArray();
+		// if it was an empty line, there is nothing to keep but the text
+		if (!lexer.lex(buf, 0, buf.length)) {
+			return new Line(text, null, false, null, 0);
+		}
+		Instruction inst = Assembler.parseLine(lexer, lineNo, 0, null);
+		String label = lexer.hasLabel() ? lexer.getLabel() : null;
+		if (inst == null) {
+			return new Line(text, label, false, null, 0);
+		}
+		String target = inst.getLabel();
+		if (target == null) {
+			return new Line(text, label, true, null, inst.toWord());
+		}
+		return new Line(text, label, true, target, Assembler.encodeUnlinked(inst));
+	}
+
+	private static int countSteps(List<Line> list, int from, int to) {
+		int steps = 0;
+		for (int i = from; i < to; i++) {
+			if (list.get(i).hasInstruction) {
+				steps++;
+			}
+		}
+		return steps;
+	}
+
+	private static boolean hasLabel(List<Line> list) {
+		for (Line line : list) {
+			if (line.label != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Updates the labels and resolves the jumps and branches whose encoding changed.
+	 * 
+	 * @param moved
+	 *            the index of the first line which was moved without being parsed
+	 * @param shift
+	 *            the number of steps the moved lines were shifted by
+	 */
+	private void link(int moved, int shift) {
+		Map<String, Integer> oldLabelMap = labelMap;
+		labelMap = new HashMap<String, Integer>();
+		int stepNo = 0;
+		for (Line line : lines) {
+			if (line.label != null) {
+				labelMap.put(line.label, stepNo);
+			}
+			if (line.hasInstruction) {
+				stepNo++;
+			}
+		}
+
+		labelError = null;
+		relinked = 0;
+		stepNo = 0;
+		for (int i = 0, size = lines.size(); i < size; i++) {
+			Line line = lines.get(i);
+			if (line.hasInstruction) {
+				link(line, i, stepNo, (moved <= i) ? stepNo - shift : stepNo, oldLabelMap);
+				stepNo++;
+			}
+		}
+	}
+
+	/**
+	 * Resolves the jump or branch on the line if its encoding changed.
+	 */
+	private void link(Line line, int index, int stepNo, int oldStepNo, Map<String, Integer> oldLabelMap) {
+		if (line.target == null) {
+			return;
+		}
+		Integer jumpAddr = labelMap.get(line.target);
+		if (jumpAddr == null) {
+			if (labelError == null) {
+				labelError = new LabelNotFoundException(line.target, index + 1);
+			}
+			line.linked = false;
+			words[stepNo] = line.word;
+		} else if (!line.linked || changed(line, jumpAddr, oldLabelMap.get(line.target), stepNo, oldStepNo)) {
+			line.linked = true;
+			words[stepNo] = Assembler.link(line.word, jumpAddr, stepNo);
+			relinked++;
+		}
+	}
+
+	/**
+	 * Returns whether the encoding of the jump or branch changed.
+	 */
+	private static boolean changed(Line line, int jumpAddr, Integer oldJumpAddr, int stepNo, int oldStepNo) {
+		if (oldJumpAddr == null) {
+			return true;
+		}
+		Instruction.INST inst = Instruction.getInstByCode(line.word);
+		if ((inst == Instruction.INST.J) || (inst == Instruction.INST.JAL)) {
+			return jumpAddr != oldJumpAddr;
+		}
+		// branches are relative to the instruction
+		return jumpAddr - stepNo != oldJumpAddr - oldStepNo;
+	}
+
+	/**
+	 * Returns the number of lines of the source.
+	 * 
+	 * @return the number of lines
+	 */
+	public int getLineCount() {
+		return lines.size();
+	}
+
+	/**
+	 * Returns the number of jumps and branches resolved by the last update.
+	 * 
+	 * @return the number of jumps and branches
+	 */
+	public int getRelinkedCount() {
+		return relinked;
+	}
+
+	/**
+	 * Returns the labels defined in the source.
+	 * 
+	 * @return the unmodifiable map of label and address
+	 */
+	public Map<String, Integer> getLabels() {
+		return Collections.unmodifiableMap(labelMap);
+	}
+
+	/**
+	 * Assembles the source into binary code.
+	 * 
+	 * @return the binary code of each instruction (the index in the array is the step number)
+	 * @throws LabelNotFoundException
+	 *             If undefined label was used
+	 */
+	public int[] assembleWords() throws LabelNotFoundException {
+		if (labelError != null) {
+			throw labelError;
+		}
+		return words.clone();
+	}
+
+	/**
+	 * Assembles the source.
+	 * 
+	 * @return the assembled binary code (Altera-friendly format)
+	 * @throws LabelNotFoundException
+	 *             If undefined label was used
+	 */
+	public String assemble() throws LabelNotFoundException {
+		return Assembler.format(assembleWords());
+	}
+
+	/**
+	 * Assembles the source into a decoded program.
+	 * 
+	 * @return the decoded program
+	 * @throws LabelNotFoundException
+	 *             If undefined label was used
+	 */
+	public Program toProgram() throws LabelNotFoundException {
+		if (labelError != null) {
+			throw labelError;
+		}
+		List<Instruction> decoded = new ArrayList<Instruction>(words.length);
+		int stepNo = 0;
+		for (int i = 0, size = lines.size(); i < size; i++) {
+			if (lines.get(i).hasInstruction) {
+				try {
+					decoded.add(Instruction.createInstruction(words[stepNo], i + 1, stepNo));
+				} catch (InvalidInstructionException e) {
+					// the assembled code of a valid instruction is always decodable
+					throw new IllegalStateException(e.getMessage());
+				}
+				stepNo++;
+			}
+		}
+		return new Program(decoded);
+	}
+
+	/**
+	 * A line of the source and the result of parsing it.
+	 */
+	private static final class Line {
+		private final String text;
+		private final String label; // the label defined on the line
+		private final boolean hasInstruction;
+		private final String target; // the label the instruction jumps to
+		private final int word; // the binary code (without the target if it jumps to a label)
+		private boolean linked; // whether the target is set in the binary code
+
+		Line(String text, String label, boolean hasInstruction, String target, int word) {
+			this.text = text;
+			this.label = label;
+			this.hasInstruction = hasInstruction;
+			this.target = target;
+			this.word = word;
+		}
+
+		boolean matches(String src, int start, int end) {
+			return (text.length() == end - start) && src.regionMatches(start, text, 0, text.length());
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package mips;
+
+import java.util.*;
+
+import mips.exception.*;
+
+/**
+ * MIPS Linker
+ * 
+ * Combines separately assembled {@link ObjectModule}s into one program. The modules are placed in the order they were
+ * added, the symbols of all the modules are gathered, and the relocations are patched with the final addresses.
+ * 
+ * A jump to a label of the module itself is resolved with the symbols of that module, so that modules may define the
+ * same labels for their own use (e.g., "loop"). Only a label referred to by another module has to be defined by
+ * exactly one module.
+ * 
+ * A module added with the name of a module already added replaces it, so that when one source is changed, only that
+ * source has to be assembled again before linking.
+ */
+public class Linker {
+	private final List<ObjectModule> modules = new ArrayList<ObjectModule>();
+	private Map<String, Integer> symbolMap = new HashMap<String, Integer>();
+
+	/**
+	 * Adds the module, or replaces the module of the same name.
+	 * 
+	 * @param module
+	 *            the module
+	 */
+	public void add(ObjectModule module) {
+		for (int i = 0, size = modules.size(); i < size; i++) {
+			if (modules.get(i).getName().equals(module.getName())) {
+				modules.set(i, module);
+				return;
+			}
+		}
+		modules.add(module);
+	}
+
+	/**
+	 * Removes the module.
+	 * 
+	 * @param name
+	 *            the name of the module
+	 * @return true if the module was removed
+	 */
+	public boolean remove(String name) {
+		for (Iterator<ObjectModule> it = modules.iterator(); it.hasNext();) {
+			if (it.next().getName().equals(name)) {
+				it.remove();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the modules in the order they are placed.
+	 * 
+	 * @return the unmodifiable list of modules
+	 */
+	public List<ObjectModule> getModules() {
+		return Collections.unmodifiableList(modules);
+	}
+
+	/**
+	 * Returns the symbols of the last linked program, which are defined by exactly one module.
+	 * 
+	 * @return the unmodifiable map of label and address
+	 */
+	public Map<String, Integer> getSymbols() {
+		return Collections.unmodifiableMap(symbolMap);
+	}
+
+	/**
+	 * Links the modules.
+	 * 
+	 * @return the binary code of each instruction of the program
+	 * @throws SyntaxException
+	 *             If a symbol referred to by another module was defined in more than one module
+	 * @throws LabelNotFoundException
+	 *             If a label was not defined in any module
+	 */
+	public int[] link() throws SyntaxException, LabelNotFoundException {
+		// place the modules and gather the symbols
+		int[] base = new int[modules.size()];
+		int size = 0;
+		Map<String, Integer> symbols = new HashMap<String, Integer>();
+		Map<String, String> definedIn = new HashMap<String, String>();
+		Map<String, String> duplicates = new HashMap<String, String>(); // the modules defining a symbol twice
+		for (int m = 0; m < base.length; m++) {
+			ObjectModule module = modules.get(m);
+			base[m] = size;
+			for (Map.Entry<String, Integer> symbol : module.getSymbols().entrySet()) {
+				String other = definedIn.put(symbol.getKey(), module.getName());
+				if (other != null) {
+					if (!duplicates.containsKey(symbol.getKey())) {
+						duplicates.put(symbol.getKey(), other + " and " + module.getName());
+					}
+					symbols.remove(symbol.getKey());
+				} else {
+					symbols.put(symbol.getKey(), base[m] + symbol.getValue());
+				}
+			}
+			size += module.getSize();
+		}
+
+		// patch the relocations
+		int[] words = new int[size];
+		for (int m = 0; m < base.length; m++) {
+			ObjectModule module = modules.get(m);
+			module.copyWords(words, base[m]);
+			for (int i = 0, count = module.getRelocationCount(); i < count; i++) {
+				String symbol = module.getRelocationSymbol(i);
+				Integer jumpAddr;
+				if (module.isRelocationExternal(i)) {
+					if (duplicates.containsKey(symbol)) {
+						throw new SyntaxException("Duplicate symbol (" + symbol + ") in modules "
+								+ duplicates.get(symbol));
+					}
+					jumpAddr = symbols.get(symbol);
+				} else {
+					jumpAddr = base[m] + module.getSymbols().get(symbol);
+				}
+				if (jumpAddr == null) {
+					throw new LabelNotFoundException(symbol, module.getRelocationLine(i));
+				}
+				int stepNo = base[m] + module.getRelocationStep(i);
+				words[stepNo] = Assembler.link(words[stepNo], jumpAddr, stepNo);
+			}
+		}
+		symbolMap = symbols;
+		return words;
+	}
+}
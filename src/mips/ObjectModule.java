@@ -0,0 +1,251 @@
+package mips;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Assembled Module
+ * 
+ * The binary code of a source assembled separately from the other sources of the program, to be combined by the
+ * {@link Linker}. The addresses of the module start from 0, and every label defined in the module is exported as a
+ * symbol. A symbol may be defined by more than one module (e.g., a local loop label), as long as no other module
+ * refers to it.
+ * 
+ * The jumps which cannot be encoded until the address of the module is known are recorded as relocations: the jumps
+ * (J and JAL) to labels of the module, which are absolute, and the jumps and branches to labels defined in other
+ * modules. The branches to labels of the module are relative, so that they are encoded by the Assembler.
+ */
+public final class ObjectModule {
+	private static final int MAGIC = 0x4D49504F; // "MIPO"
+	private static final int VERSION = 1;
+
+	private final String name;
+	private final int[] words;
+	private final Map<String, Integer> symbols;
+
+	// relocations (the step number, the label, whether the label is defined in another module and the line number)
+	private final int[] relocStep;
+	private final String[] relocSymbol;
+	private final boolean[] relocExternal;
+	private final int[] relocLine;
+
+	ObjectModule(String name, int[] words, Map<String, Integer> symbols, int[] relocStep, String[] relocSymbol,
+			boolean[] relocExternal, int[] relocLine) {
+		this.name = name;
+		this.words = words;
+		this.symbols = symbols;
+		this.relocStep = relocStep;
+		this.relocSymbol = relocSymbol;
+		this.relocExternal = relocExternal;
+		this.relocLine = relocLine;
+	}
+
+	/**
+	 * Returns the name of the module.
+	 * 
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the number of instructions in the module.
+	 * 
+	 * @return the number of instructions
+	 */
+	public int getSize() {
+		return words.length;
+	}
+
+	/**
+	 * Returns the binary code of the module, in which the targets of the relocations are not set.
+	 * 
+	 * @return the binary code of each instruction
+	 */
+	public int[] getWords() {
+		return words.clone();
+	}
+
+	/**
+	 * Returns the symbols exported by the module.
+	 * 
+	 * @return the unmodifiable map of label and address (relative to the module)
+	 */
+	public Map<String, Integer> getSymbols() {
+		return Collections.unmodifiableMap(symbols);
+	}
+
+	/**
+	 * Returns the number of relocations.
+	 * 
+	 * @return the number of relocations
+	 */
+	public int getRelocationCount() {
+		return relocStep.length;
+	}
+
+	/**
+	 * Returns the labels used by the module but defined in other modules.
+	 * 
+	 * @return the set of labels
+	 */
+	public Set<String> getExternalSymbols() {
+		Set<String> external = new TreeSet<String>();
+		for (int i = 0; i < relocStep.length; i++) {
+			if (relocExternal[i]) {
+				external.add(relocSymbol[i]);
+			}
+		}
+		return external;
+	}
+
+	int getRelocationStep(int i) {
+		return relocStep[i];
+	}
+
+	String getRelocationSymbol(int i) {
+		return relocSymbol[i];
+	}
+
+	boolean isRelocationExternal(int i) {
+		return relocExternal[i];
+	}
+
+	int getRelocationLine(int i) {
+		return relocLine[i];
+	}
+
+	void copyWords(int[] dest, int destPos) {
+		System.arraycopy(words, 0, dest, destPos, words.length);
+	}
+
+	/**
+	 * Writes the module to the object file.
+	 * 
+	 * @param path
+	 *            the object file, which is created or overwritten
+	 * @throws IOException
+	 *             If an I/O error occurred
+	 */
+	public void write(Path path) throws IOException {
+		OutputStream out = Files.newOutputStream(path);
+		try {
+			write(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the module to the stream.
+	 * 
+	 * @param stream
+	 *            the stream
+	 * @throws IOException
+	 *             If an I/O error occurred
+	 */
+	public void write(OutputStream stream) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeUTF(name);
+		out.writeInt(words.length);
+		for (int word : words) {
+			out.writeInt(word);
+		}
+		out.writeInt(symbols.size());
+		for (Map.Entry<String, Integer> symbol : symbols.entrySet()) {
+			out.writeUTF(symbol.getKey());
+			out.writeInt(symbol.getValue());
+		}
+		out.writeInt(relocStep.length);
+		for (int i = 0; i < relocStep.length; i++) {
+			out.writeInt(relocStep[i]);
+			out.writeUTF(relocSymbol[i]);
+			out.writeBoolean(relocExternal[i]);
+			out.writeInt(relocLine[i]);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Reads the module from the object file.
+	 * 
+	 * @param path
+	 *            the object file
+	 * @return the module
+	 * @throws IOException
+	 *             If an I/O error occurred, or the file was not a valid object file
+	 */
+	public static ObjectModule read(Path path) throws IOException {
+		return read(Files.readAllBytes(path));
+	}
+
+	/**
+	 * Reads the module from the stream. The stream is read to the end.
+	 * 
+	 * @param stream
+	 *            the stream
+	 * @return the module
+	 * @throws IOException
+	 *             If an I/O error occurred, or the stream did not contain a valid module
+	 */
+	public static ObjectModule read(InputStream stream) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		for (int n; (n = stream.read(buf)) != -1;) {
+			bytes.write(buf, 0, n);
+		}
+		return read(bytes.toByteArray());
+	}
+
+	private static ObjectModule read(byte[] bytes) throws IOException {
+		// the counts are checked against the bytes left, so that a broken file cannot cause a huge allocation
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+			throw new IOException("Not an object file");
+		}
+		String name = in.readUTF();
+		int[] words = new int[readCount(in, 4)];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = in.readInt();
+		}
+		Map<String, Integer> symbols = new HashMap<String, Integer>();
+		for (int i = readCount(in, 2 + 4); 0 < i; i--) {
+			String symbol = in.readUTF();
+			symbols.put(symbol, in.readInt());
+		}
+		int relocations = readCount(in, 4 + 2 + 1 + 4);
+		int[] relocStep = new int[relocations];
+		String[] relocSymbol = new String[relocations];
+		boolean[] relocExternal = new boolean[relocations];
+		int[] relocLine = new int[relocations];
+		for (int i = 0; i < relocations; i++) {
+			relocStep[i] = in.readInt();
+			relocSymbol[i] = in.readUTF();
+			relocExternal[i] = in.readBoolean();
+			relocLine[i] = in.readInt();
+			if ((relocStep[i] < 0) || (words.length <= relocStep[i])) {
+				throw new IOException("Invalid relocation (" + relocStep[i] + ")");
+			}
+			if (!relocExternal[i] && !symbols.containsKey(relocSymbol[i])) {
+				// a local relocation is resolved with the symbols of the module
+				throw new IOException("Invalid relocation (" + relocSymbol[i] + ")");
+			}
+		}
+		return new ObjectModule(name, words, symbols, relocStep, relocSymbol, relocExternal, relocLine);
+	}
+
+	/**
+	 * Reads the number of items, each of which takes at least the given number of bytes.
+	 */
+	private static int readCount(DataInputStream in, int minBytes) throws IOException {
+		int count = in.readInt();
+		if ((count < 0) || (in.available() < (long) count * minBytes)) {
+			throw new IOException("Invalid object module");
+		}
+		return count;
+	}
+}
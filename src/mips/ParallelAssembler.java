@@ -0,0 +1,316 @@
+package mips;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import mips.entity.*;
+import mips.exception.*;
+import mips.utils.*;
+
+/**
+ * MIPS Parallel Assembler
+ * 
+ * Splits the source into chunks of lines and assembles them concurrently on a ForkJoinPool. Each chunk is parsed
+ * with its own label table and step numbers starting from 0, and jumps to labels are recorded as fixups. The step
+ * numbers of the chunks are then given by prefix sums, the label tables are merged in the order of the chunks (so
+ * that a label defined more than once refers to its last definition, as in the {@link Assembler}), and the fixups
+ * are resolved concurrently.
+ * 
+ * The result and the errors reported are the same as those of the {@link Assembler}; when several chunks have
+ * errors, the first one in the source is reported.
+ */
+public class ParallelAssembler {
+	/**
+	 * The default number of characters in a chunk.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+	private final ForkJoinPool pool;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private Map<String, Integer> labelMap = new HashMap<String, Integer>();
+
+	/**
+	 * Constructs new ParallelAssembler which runs on the common pool.
+	 */
+	public ParallelAssembler() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Constructs new ParallelAssembler.
+	 * 
+	 * @param pool
+	 *            the pool to run the chunks
+	 */
+	public ParallelAssembler(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Sets the approximate number of characters in a chunk.
+	 * 
+	 * @param chunkSize
+	 *            the number of characters
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Invalid chunk size (" + chunkSize + ")");
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Returns the labels defined in the last assembled source.
+	 * 
+	 * @return the unmodifiable map of label and address
+	 */
+	public Map<String, Integer> getLabels() {
+		return Collections.unmodifiableMap(labelMap);
+	}
+
+	/**
+	 * Assembles the source file.
+	 * 
+	 * @param source
+	 *            the source file
+	 * @return the binary code of each instruction
+	 * @throws IOException
+	 *             If an I/O error occurred
+	 * @throws SyntaxException
+	 *             If there was a syntax error in the source
+	 * @throws LabelNotFoundException
+	 *             If undefined label was used
+	 */
+	public int[] assemble(Path source) throws IOException, SyntaxException, LabelNotFoundException {
+		return assemble(new String(Files.readAllBytes(source), Charset.defaultCharset()));
+	}
+
+	/**
+	 * Assembles the source.
+	 * 
+	 * @param src
+	 *            the assembler source
+	 * @return the binary code of each instruction
+	 * @throws SyntaxException
+	 *             If there was a syntax error in the source
+	 * @throws LabelNotFoundException
+	 *             If undefined label was used
+	 */
+	public int[] assemble(String src) throws SyntaxException, LabelNotFoundException {
+		final char[] buf = src.toCharArray();
+		final Chunk[] chunks = split(buf);
+
+		// count the lines of each chunk
+		run(chunks, new ChunkTask() {
+			public void run(Chunk chunk) {
+				chunk.countLines(buf);
+			}
+		});
+		int lineNo = 0;
+		for (Chunk chunk : chunks) {
+			chunk.firstLine = lineNo;
+			lineNo += chunk.lines;
+		}
+
+		// parse and encode the chunks
+		run(chunks, new ChunkTask() {
+			public void run(Chunk chunk) {
+				chunk.parse(buf);
+			}
+		});
+		for (Chunk chunk : chunks) {
+			if (chunk.syntaxError != null) {
+				throw chunk.syntaxError;
+			}
+		}
+
+		// assign the step numbers and merge the labels
+		int stepNo = 0;
+		labelMap = new HashMap<String, Integer>();
+		for (Chunk chunk : chunks) {
+			chunk.firstStep = stepNo;
+			stepNo += chunk.steps;
+			for (Map.Entry<String, Integer> label : chunk.labels.entrySet()) {
+				labelMap.put(label.getKey(), chunk.firstStep + label.getValue());
+			}
+		}
+
+		// resolve the jumps to labels
+		final int[] words = new int[stepNo];
+		final Map<String, Integer> labels = labelMap;
+		run(chunks, new ChunkTask() {
+			public void run(Chunk chunk) {
+				chunk.link(words, labels);
+			}
+		});
+		for (Chunk chunk : chunks) {
+			if (chunk.labelError != null) {
+				throw chunk.labelError;
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * Splits the source into chunks which end at line terminators.
+	 */
+	private Chunk[] split(char[] buf) {
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		int start = 0;
+		do {
+			int end = (int) Math.min((long) start + chunkSize, buf.length);
+			while ((end < buf.length) && !Assembler.isLineTerminator(buf[end - 1])) {
+				end++;
+			}
+			if ((end < buf.length) && (buf[end - 1] == '\r') && (buf[end] == '\n')) {
+				end++;
+			}
+			chunks.add(new Chunk(start, end));
+			start = end;
+		} while (start < buf.length);
+		return chunks.toArray(new Chunk[chunks.size()]);
+	}
+
+	private void run(Chunk[] chunks, final ChunkTask task) {
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(chunks.length);
+		for (final Chunk chunk : chunks) {
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					task.run(chunk);
+					return null;
+				}
+			});
+		}
+		for (Future<Void> future : pool.invokeAll(tasks)) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new IllegalStateException(cause);
+			}
+		}
+	}
+
+	private static interface ChunkTask {
+		void run(Chunk chunk);
+	}
+
+	/**
+	 * A range of lines of the source and the result of assembling it.
+	 */
+	private static final class Chunk {
+		private final int start, end; // the range in the source
+		private int lines; // number of line terminators
+		private int firstLine; // number of lines before the chunk
+		private int firstStep; // number of instructions before the chunk
+		private int steps; // number of instructions
+		private int[] words = new int[256];
+		private Map<String, Integer> labels = new HashMap<String, Integer>(); // addresses relative to the chunk
+
+		// jumps to labels (the step number in the chunk, the word without the target, the label and the line number)
+		private int fixups;
+		private int[] fixupStep = new int[16];
+		private int[] fixupWord = new int[16];
+		private String[] fixupLabel = new String[16];
+		private int[] fixupLine = new int[16];
+
+		private SyntaxException syntaxError;
+		private LabelNotFoundException labelError;
+
+		Chunk(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		void countLines(char[] buf) {
+			for (int i = start; i < end; i++) {
+				if (Assembler.isLineTerminator(buf[i])) {
+					if ((buf[i] == '\r') && (i + 1 < end) && (buf[i + 1] == '\n')) {
+						i++;
+					}
+					lines++;
+				}
+			}
+		}
+
+		void parse(char[] buf) {
+			Lexer lexer = new Lexer();
+			int lineNo = firstLine;
+			try {
+				for (int p = start; p < end;) {
+					// go to next line
+					lineNo++;
+					int q = p;
+					while ((q < end) && !Assembler.isLineTerminator(buf[q])) {
+						q++;
+					}
+					int next = q + 1;
+					if ((q + 1 < end) && (buf[q] == '\r') && (buf[q + 1] == '\n')) {
+						next++;
+					}
+
+					// if it was an empty line, continue to the next line
+					if (lexer.lex(buf, p, q)) {
+						Instruction inst = Assembler.parseLine(lexer, lineNo, steps, labels);
+						if (inst != null) {
+							add(inst);
+						}
+					}
+					p = next;
+				}
+			} catch (SyntaxException e) {
+				syntaxError = e;
+			}
+		}
+
+		private void add(Instruction inst) {
+			if (steps == words.length) {
+				words = Arrays.copyOf(words, steps * 2);
+			}
+			String label = inst.getLabel();
+			if (label == null) {
+				words[steps] = inst.toWord();
+			} else {
+				// the label may be defined in another chunk, or again later
+				if (fixups == fixupStep.length) {
+					fixupStep = Arrays.copyOf(fixupStep, fixups * 2);
+					fixupWord = Arrays.copyOf(fixupWord, fixups * 2);
+					fixupLabel = Arrays.copyOf(fixupLabel, fixups * 2);
+					fixupLine = Arrays.copyOf(fixupLine, fixups * 2);
+				}
+				fixupStep[fixups] = steps;
+				fixupWord[fixups] = Assembler.encodeUnlinked(inst);
+				fixupLabel[fixups] = label;
+				fixupLine[fixups] = inst.getLineNo();
+				fixups++;
+			}
+			steps++;
+		}
+
+		void link(int[] result, Map<String, Integer> labelMap) {
+			System.arraycopy(words, 0, result, firstStep, steps);
+			words = null;
+			for (int i = 0; i < fixups; i++) {
+				Integer jumpAddr = labelMap.get(fixupLabel[i]);
+				if (jumpAddr == null) {
+					labelError = new LabelNotFoundException(fixupLabel[i], fixupLine[i]);
+					return;
+				}
+				int stepNo = firstStep + fixupStep[i];
+				result[stepNo] = Assembler.link(fixupWord[i], jumpAddr, stepNo);
+			}
+		}
+	}
+}
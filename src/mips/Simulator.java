@@ -1,8 +1,12 @@
 package mips;
 
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
 import java.util.*;
 
 import static mips.utils.Utilites.*;
+import mips.engine.*;
 import mips.entity.*;
 import mips.exception.*;
 
@@ -12,11 +16,43 @@ import mips.exception.*;
  * @author Kenichi Maehashi 
  */
 public class Simulator implements Runnable {
-	private List<Instruction> instList; // decoded Instructions will be stored
+	/**
+	 * Represents each kind of execution engines.
+	 */
+	public static enum ENGINE {
+		/**
+		 * Runs each Instruction object (default)
+		 */
+		INSTRUCTION,
+		/**
+		 * Runs the instructions lowered into a packed primitive array
+		 */
+		FLAT,
+		/**
+		 * Runs the lowered instructions, translating frequently executed blocks into JVM bytecode
+		 */
+		TRANSLATED;
+	}
+
+	// number of instructions executed between checks of the kill/pause requests
+	private static final long CHUNK_STEPS = 1 << 16;
+
+	private Program program; // decoded Instructions will be stored
 	private Memory memory; // pairs of address and data will be stored
 	private RegisterFile regfile; // register file
 	private int pc; // program counter
-	private boolean kill; // if set to true, simulation must be killed immediately
+	private volatile boolean kill; // if set to true, simulation must be killed immediately
+	private volatile boolean paused; // if set to true, simulation must be paused
+	private ENGINE engine = ENGINE.INSTRUCTION; // execution engine
+	private FlatInterpreter interpreter; // created on demand for the flat and translated engines (and profiling)
+	private Profile profile; // null unless profiling is enabled
+	private IdleDetector idleDetector; // created on demand for the instruction engine
+	private long executedSteps; // total number of instructions executed by the instruction engine
+	private boolean halted; // if set to true, the program got stuck in the last chunk
+	private boolean fusion; // if set to true, the flat engine runs the code with pairs of instructions fused
+	private boolean lazyDecoding; // if set to true, binary images are decoded as their instructions are executed
+	private Integer textBase; // if set, the program is placed in the memory at this address
+	private CodeCache codeCache; // created when the program is placed in the memory
 
 	/**
 	 * Constructs new Simulator object.
@@ -25,15 +61,42 @@ public class Simulator implements Runnable {
 		init();
 	}
 
+	/**
+	 * Constructs new Simulator object which executes the program.
+	 * 
+	 * @param program
+	 *            the decoded program, which may be shared with other Simulators
+	 */
+	public Simulator(Program program) {
+		init();
+		this.program = program;
+	}
+
 	/**
 	 * Initializes the Simulator.
 	 */
 	public void init() {
-		instList = new ArrayList<Instruction>();
+		program = Program.EMPTY;
 		memory = new Memory();
 		regfile = new RegisterFile(32);
 		pc = 0;
 		kill = false;
+		paused = false;
+		interpreter = null;
+		profile = null;
+		codeCache = null;
+	}
+
+	/**
+	 * Resets the state of the machine (memory, registers and the program counter), keeping the program and the
+	 * execution engine. Blocks already translated by the engine are kept as well.
+	 */
+	public void reset() {
+		regfile = new RegisterFile(32);
+		pc = 0;
+		kill = false;
+		paused = false;
+		setMemory(new Memory());
 	}
 
 	/**
@@ -47,32 +110,373 @@ public class Simulator implements Runnable {
 	 *             If there was a invalid instruction in the binary code
 	 */
 	public void decode(String src) throws SyntaxException, InvalidInstructionException {
-		instList.addAll(decodeInstruction(src));
+		program = program.append(decodeInstruction(src));
+		interpreter = null;
+		codeCache = null;
+		if (profile != null) {
+			profile = new Profile(program);
+		}
+	}
+
+	/**
+	 * Decodes the binary image, in which each instruction is a word of 4 bytes in the byte order of the buffer.
+	 * 
+	 * @param image
+	 *            the binary image
+	 * @throws SyntaxException
+	 *             If the size of the image was not a multiple of 4
+	 * @throws InvalidInstructionException
+	 *             If there was a invalid instruction in the image
+	 */
+	public void decode(ByteBuffer image) throws SyntaxException, InvalidInstructionException {
+		if (lazyDecoding) {
+			program = program.appendLazily(readWords(image));
+		} else {
+			program = program.append(decodeInstruction(image));
+		}
+		interpreter = null;
+		codeCache = null;
+		if (profile != null) {
+			profile = new Profile(program);
+		}
 	}
 
 	/**
-	 * Run the previously parsed instructions. Do not call this method directly; you need to use generate new Thread like this: Thread t = new
-	 * Thread(new Simulator());
+	 * Decodes the binary image file, which is mapped into memory instead of being read.
+	 * 
+	 * @param image
+	 *            the binary image file
+	 * @param order
+	 *            the byte order of the words in the file
+	 * @throws IOException
+	 *             If the file could not be mapped
+	 * @throws SyntaxException
+	 *             If the size of the image was not a multiple of 4
+	 * @throws InvalidInstructionException
+	 *             If there was a invalid instruction in the image
+	 */
+	public void decode(Path image, ByteOrder order) throws IOException, SyntaxException, InvalidInstructionException {
+		decode(mapImage(image, order));
+	}
+
+	/**
+	 * Enables or disables lazy decoding of binary images. While it is enabled, {@link #decode(ByteBuffer)} and
+	 * {@link #decode(Path, ByteOrder)} only check the words of the image, and each instruction is decoded the first
+	 * time it is executed (see {@link Program#decodeLazily(ByteBuffer)}). The line number of each lazily decoded
+	 * instruction is its program counter plus 1. Sources in the text format are always decoded at once.
+	 * 
+	 * @param lazyDecoding
+	 *            true to enable lazy decoding
+	 */
+	public void setLazyDecoding(boolean lazyDecoding) {
+		this.lazyDecoding = lazyDecoding;
+	}
+
+	/**
+	 * Returns if binary images are decoded lazily.
+	 * 
+	 * @return true if lazy decoding is enabled
+	 */
+	public boolean isLazyDecoding() {
+		return lazyDecoding;
+	}
+
+	/**
+	 * Places the program in the memory at the address, or keeps the program apart from the memory (default). While
+	 * the text base address is set, the instruction at a program counter is the word at the address plus 4 times the
+	 * program counter, so that stores to the code take effect and code loaded into the memory can be executed. The
+	 * instructions are decoded once and cached in pages, and a page is decoded again after a store to it (see
+	 * {@link CodeCache}).
+	 * 
+	 * The program is written to the memory when the simulation starts, and again after the program or the memory is
+	 * replaced. It is run instruction by instruction whichever engine is selected, and profiling does not apply. The
+	 * simulation finishes when the program counter reaches the end of the program, but jumps beyond the end execute
+	 * the code in the memory. Writes to the memory through {@link #setMemory(int, int)} and
+	 * {@link #loadMemory(int, int[])} are seen by the cache, while direct writes to {@link #getMemory()} are not.
+	 * 
+	 * @param textBase
+	 *            the address of the first instruction (a multiple of 4), or null to keep the program apart from the
+	 *            memory
+	 */
+	public void setTextBase(Integer textBase) {
+		if ((textBase != null) && ((textBase & 3) != 0)) {
+			throw new IllegalArgumentException("Invalid text base address (" + textBase + ")");
+		}
+		this.textBase = textBase;
+		this.codeCache = null;
+	}
+
+	/**
+	 * Returns the address the program is placed at in the memory.
+	 * 
+	 * @return the text base address, or null if the program is kept apart from the memory
+	 */
+	public Integer getTextBase() {
+		return textBase;
+	}
+
+	/**
+	 * Returns the cache of the instructions decoded from the memory.
+	 * 
+	 * @return the cache, or null if the program has not been placed in the memory
+	 */
+	public CodeCache getCodeCache() {
+		return codeCache;
+	}
+
+	/**
+	 * Replaces the program with the decoded program. The state of the machine (memory, registers and the program
+	 * counter) is left as it is.
+	 * 
+	 * @param program
+	 *            the decoded program, which may be shared with other Simulators
+	 */
+	public void load(Program program) {
+		this.program = program;
+		this.interpreter = null;
+		this.codeCache = null;
+		if (profile != null) {
+			profile = new Profile(program);
+		}
+	}
+
+	/**
+	 * Returns the program.
+	 * 
+	 * @return the decoded program
+	 */
+	public Program getProgram() {
+		return program;
+	}
+
+	/**
+	 * Run the previously parsed instructions until the end of the program or until the simulation is killed. To run
+	 * the simulation in background, generate new Thread like this: Thread t = new Thread(new Simulator()); When the
+	 * simulation is paused, the thread waits until it is resumed or killed.
 	 */
 	public void run() {
-		if (instList.size() == 0) {
-			return;
-		}
-		while (!kill) {
-			Instruction currentInst;
-			try {
-				currentInst = instList.get(pc);
-			} catch (IndexOutOfBoundsException e) {
-				if (pc == instList.size()) {
-					return; // end of program
+		while (run(Long.MAX_VALUE, 0).getStatus() == SimulationResult.STATUS.PAUSED) {
+			synchronized (this) {
+				while (paused && !kill) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
 				}
-				throw new SimulationException("No instructions here", pc);
 			}
-			pc = currentInst.run(pc, regfile, memory);
-			Thread.yield();
 		}
 	}
 
+	/**
+	 * Run the previously parsed instructions within the given budget. Requests to kill or pause the simulation are
+	 * observed every {@value #CHUNK_STEPS} instructions.
+	 * 
+	 * @param maxSteps
+	 *            the maximum number of instructions to execute
+	 * @param timeoutMillis
+	 *            the maximum time to run in milliseconds (0 for no time limit)
+	 * @return the result describing why the simulation stopped
+	 */
+	public SimulationResult run(long maxSteps, long timeoutMillis) {
+		return execute(maxSteps, timeoutMillis, true);
+	}
+
+	/**
+	 * Execute only one instruction. This works even if the simulation is paused.
+	 * 
+	 * @return the result of the step
+	 */
+	public SimulationResult step() {
+		return execute(1, 0, false);
+	}
+
+	private SimulationResult execute(long maxSteps, long timeoutMillis, boolean pausable) {
+		long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+		long steps = 0;
+
+		if (textBase != null) {
+			if (codeCache == null) {
+				memory.write(textBase, program.getWords(), 0, program.size());
+				codeCache = new CodeCache(memory, textBase, program.size());
+			}
+			idleDetector = null;
+		} else if (usesInterpreter()) {
+			if (interpreter == null) {
+				FlatCode flatCode = program.getFlatCode();
+				if (profile != null) {
+					interpreter = new ProfilingInterpreter(flatCode, memory, profile);
+				} else if (engine == ENGINE.TRANSLATED) {
+					interpreter = new TranslatingInterpreter(flatCode, memory);
+				} else {
+					interpreter = new FlatInterpreter(fusion ? program.getFusedCode() : flatCode, memory);
+				}
+			}
+			interpreter.load(regfile);
+		} else {
+			idleDetector = null; // the state may have been changed from outside
+		}
+
+		while (true) {
+			if ((pc < 0) || (program.size() <= pc)) {
+				if (pc == program.size()) {
+					return new SimulationResult(SimulationResult.STATUS.FINISHED, pc, steps); // end of program
+				}
+				if ((pc < 0) || (textBase == null)) {
+					throw new SimulationException("No instructions here", pc);
+				}
+			}
+			if (kill) {
+				return new SimulationResult(SimulationResult.STATUS.KILLED, pc, steps);
+			}
+			if (pausable && paused) {
+				return new SimulationResult(SimulationResult.STATUS.PAUSED, pc, steps);
+			}
+			if (maxSteps <= steps) {
+				return new SimulationResult(SimulationResult.STATUS.STEP_LIMIT, pc, steps);
+			}
+			if ((0 < timeoutMillis) && (0 <= System.nanoTime() - deadline)) {
+				return new SimulationResult(SimulationResult.STATUS.TIMEOUT, pc, steps);
+			}
+			steps += executeChunk(Math.min(CHUNK_STEPS, maxSteps - steps));
+			if (halted) {
+				return new SimulationResult(SimulationResult.STATUS.HALTED, pc, steps);
+			}
+		}
+	}
+
+	private boolean usesInterpreter() {
+		return (engine != ENGINE.INSTRUCTION) || (profile != null);
+	}
+
+	private long executeChunk(long maxSteps) {
+		if (textBase != null) {
+			return executeChunkFromMemory(maxSteps);
+		}
+		if (usesInterpreter()) {
+			interpreter.setPc(pc);
+			long steps = interpreter.run(maxSteps);
+			interpreter.store(regfile);
+			pc = interpreter.getPc();
+			halted = interpreter.isHalted();
+			return steps;
+		}
+
+		FlatCode flatCode = program.getFlatCode();
+		int newPc = pc;
+		long steps = 0;
+		halted = false;
+		for (int size = program.size(); (steps < maxSteps) && (0 <= newPc) && (newPc < size) && !halted; steps++) {
+			int oldPc = newPc;
+			newPc = program.get(oldPc).run(oldPc, regfile, memory);
+			if (flatCode.isIdleCheck(oldPc) && (newPc != oldPc + 1)) {
+				// the branch closing a loop without side effects is taken
+				if (idleDetector == null) {
+					idleDetector = new IdleDetector(flatCode);
+				}
+				halted = idleDetector.isStuck(oldPc, regfile, executedSteps + steps + 1);
+			}
+		}
+		pc = newPc;
+		executedSteps += steps;
+		return steps;
+	}
+
+	private long executeChunkFromMemory(long maxSteps) {
+		FlatCode flatCode = program.getFlatCode();
+		int size = program.size();
+		int newPc = pc;
+		long steps = 0;
+		halted = false;
+		while ((steps < maxSteps) && (0 <= newPc) && (newPc != size) && !halted) {
+			int oldPc = newPc;
+			Instruction inst = codeCache.get(oldPc);
+			newPc = inst.run(oldPc, regfile, memory);
+			steps++;
+			if (inst.getInst() == Instruction.INST.SW) {
+				// the registers are not changed by the store
+				codeCache.invalidate(regfile.get(inst.getRs()) + inst.getImmediate());
+			} else if ((oldPc < size) && flatCode.isIdleCheck(oldPc) && (newPc != oldPc + 1)
+					&& !codeCache.isModified()) {
+				// the branch closing a loop without side effects is taken
+				if (idleDetector == null) {
+					idleDetector = new IdleDetector(flatCode);
+				}
+				halted = idleDetector.isStuck(oldPc, regfile, executedSteps + steps);
+			}
+		}
+		pc = newPc;
+		executedSteps += steps;
+		return steps;
+	}
+
+	/**
+	 * Selects the execution engine. Must be called before the simulation is started.
+	 * 
+	 * @param engine
+	 *            the execution engine
+	 */
+	public void setEngine(ENGINE engine) {
+		this.engine = engine;
+		this.interpreter = null;
+	}
+
+	/**
+	 * Returns the execution engine.
+	 * 
+	 * @return the execution engine
+	 */
+	public ENGINE getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Enables or disables superinstruction fusion (disabled by default). While it is enabled, the {@link ENGINE#FLAT}
+	 * engine runs the code in which frequent adjacent pairs of instructions (e.g., ADDI and BNE) are fused and
+	 * dispatched at once (see {@link FlatCode#fuse()}). The results, the number of steps and the places the
+	 * simulation can stop at are the same as without fusion.
+	 * 
+	 * @param fusion
+	 *            true to enable fusion
+	 */
+	public void setFusion(boolean fusion) {
+		this.fusion = fusion;
+		this.interpreter = null;
+	}
+
+	/**
+	 * Returns if superinstruction fusion is enabled.
+	 * 
+	 * @return true if fusion is enabled
+	 */
+	public boolean isFusion() {
+		return fusion;
+	}
+
+	/**
+	 * Enables or disables profiling. While profiling is enabled, the program is run by the
+	 * {@link ProfilingInterpreter} whichever engine is selected, counting the executions of each instruction. When it
+	 * is disabled (default), the engines run without any profiling code.
+	 * 
+	 * @param profiling
+	 *            true to enable profiling
+	 */
+	public void setProfiling(boolean profiling) {
+		if (profiling != (profile != null)) {
+			profile = profiling ? new Profile(program) : null;
+			interpreter = null;
+		}
+	}
+
+	/**
+	 * Returns the profile collected since profiling was enabled or the program was replaced.
+	 * 
+	 * @return the profile, or null if profiling is disabled
+	 */
+	public Profile getProfile() {
+		return profile;
+	}
+
 	/**
 	 * Set the contents of the memory.
 	 * 
@@ -83,6 +487,90 @@ public class Simulator implements Runnable {
 	 */
 	public void setMemory(int address, int data) {
 		memory.write(address, data);
+		if (codeCache != null) {
+			codeCache.invalidate(address);
+		}
+	}
+
+	/**
+	 * Set the contents of consecutive words of the memory.
+	 * 
+	 * @param address
+	 *            the address of the first word (the following words are placed at address + 4, address + 8, ...)
+	 * @param data
+	 *            the data
+	 */
+	public void loadMemory(int address, int[] data) {
+		memory.write(address, data, 0, data.length);
+		if (codeCache != null) {
+			codeCache.invalidate(address, data.length);
+		}
+	}
+
+	/**
+	 * Set the contents of consecutive words of the memory from the remaining bytes of the buffer, in its byte order.
+	 * The position of the buffer is not changed.
+	 * 
+	 * @param address
+	 *            the address of the first word (the following words are placed at address + 4, address + 8, ...)
+	 * @param data
+	 *            the data (the number of bytes must be a multiple of 4)
+	 */
+	public void loadMemory(int address, ByteBuffer data) {
+		if ((data.remaining() & 3) != 0) {
+			throw new IllegalArgumentException("Invalid data size (" + data.remaining() + " bytes)");
+		}
+		IntBuffer words = data.duplicate().order(data.order()).asIntBuffer();
+		int[] chunk = new int[Math.min(words.remaining(), 1 << 12)];
+		while (words.hasRemaining()) {
+			int n = Math.min(chunk.length, words.remaining());
+			words.get(chunk, 0, n);
+			memory.write(address, chunk, 0, n);
+			if (codeCache != null) {
+				codeCache.invalidate(address, n);
+			}
+			address += n * 4;
+		}
+	}
+
+	/**
+	 * Set the contents of consecutive words of the memory from the data file, which is mapped into memory instead of
+	 * being read.
+	 * 
+	 * @param address
+	 *            the address of the first word (the following words are placed at address + 4, address + 8, ...)
+	 * @param file
+	 *            the data file (the size must be a multiple of 4)
+	 * @param order
+	 *            the byte order of the words in the file
+	 * @throws IOException
+	 *             If the file could not be mapped
+	 */
+	public void loadMemory(int address, Path file, ByteOrder order) throws IOException {
+		loadMemory(address, mapImage(file, order));
+	}
+
+	/**
+	 * Replace the memory of the Simulator (e.g., with a {@link MappedMemory}).
+	 * 
+	 * @param memory
+	 *            the memory
+	 */
+	public void setMemory(Memory memory) {
+		this.memory = memory;
+		this.codeCache = null;
+		if (interpreter != null) {
+			interpreter.setMemory(memory);
+		}
+	}
+
+	/**
+	 * Return the memory of the Simulator.
+	 * 
+	 * @return the memory
+	 */
+	public Memory getMemory() {
+		return memory;
 	}
 
 	/**
@@ -117,7 +605,32 @@ public class Simulator implements Runnable {
 	/**
 	 * Kill the currently running simulation process.
 	 */
-	public void kill() {
+	public synchronized void kill() {
 		kill = true;
+		notifyAll();
+	}
+
+	/**
+	 * Pause the currently running simulation process.
+	 */
+	public void pause() {
+		paused = true;
+	}
+
+	/**
+	 * Resume the paused simulation process.
+	 */
+	public synchronized void resume() {
+		paused = false;
+		notifyAll();
+	}
+
+	/**
+	 * Returns if the simulation is paused.
+	 * 
+	 * @return true if the simulation is paused
+	 */
+	public boolean isPaused() {
+		return paused;
 	}
 }
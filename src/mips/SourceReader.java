@@ -0,0 +1,126 @@
+package mips;
+
+import java.io.*;
+
+/**
+ * Reads the assembler source line by line into a reusable buffer, so that a source of any size can be parsed in
+ * bounded memory.
+ */
+final class SourceReader {
+	private final Reader reader;
+	private char[] buf = new char[1 << 16];
+	private int pos; // the beginning of the next line
+	private int scan; // the position to continue searching for the line terminator
+	private int limit; // the end of the characters read
+	private boolean eof;
+	private int lineStart, lineEnd, lineNo;
+
+	/**
+	 * Constructs new SourceReader.
+	 * 
+	 * @param reader
+	 *            the reader of the source
+	 */
+	SourceReader(Reader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Reads the next line.
+	 * 
+	 * @return false if there are no more lines
+	 * @throws IOException
+	 *             If an I/O error occurred
+	 */
+	boolean nextLine() throws IOException {
+		while (true) {
+			for (int i = scan; i < limit; i++) {
+				char c = buf[i];
+				if (Assembler.isLineTerminator(c)) {
+					if ((c == '\r') && (i + 1 == limit) && !eof) {
+						break; // "\n" may follow
+					}
+					lineStart = pos;
+					lineEnd = i;
+					pos = i + 1;
+					if ((c == '\r') && (pos < limit) && (buf[pos] == '\n')) {
+						pos++;
+					}
+					scan = pos;
+					lineNo++;
+					return true;
+				}
+				scan = i + 1;
+			}
+			if (eof) {
+				if (pos == limit) {
+					return false;
+				}
+				// the last line without a line terminator
+				lineStart = pos;
+				lineEnd = limit;
+				pos = scan = limit;
+				lineNo++;
+				return true;
+			}
+			fill();
+		}
+	}
+
+	private void fill() throws IOException {
+		// move the current line to the beginning of the buffer
+		if (0 < pos) {
+			System.arraycopy(buf, pos, buf, 0, limit - pos);
+			limit -= pos;
+			scan -= pos;
+			pos = 0;
+		}
+		if (limit == buf.length) {
+			char[] newBuf = new char[buf.length * 2];
+			System.arraycopy(buf, 0, newBuf, 0, limit);
+			buf = newBuf;
+		}
+		int n = reader.read(buf, limit, buf.length - limit);
+		if (n < 0) {
+			eof = true;
+		} else {
+			limit += n;
+		}
+	}
+
+	/**
+	 * Returns the buffer holding the current line.
+	 * 
+	 * @return the buffer
+	 */
+	char[] getBuffer() {
+		return buf;
+	}
+
+	/**
+	 * Returns the index of the first character of the current line in the buffer.
+	 * 
+	 * @return the index
+	 */
+	int getStart() {
+		return lineStart;
+	}
+
+	/**
+	 * Returns the index after the last character of the current line in the buffer.
+	 * 
+	 * @return the index
+	 */
+	int getEnd() {
+		return lineEnd;
+	}
+
+	/**
+	 * Returns the line number of the current line.
+	 * 
+	 * @return the line number (starting from 1)
+	 */
+	int getLineNo() {
+		return lineNo;
+	}
+}
@@ -0,0 +1,293 @@
+package mips;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+import mips.entity.*;
+import mips.exception.*;
+import mips.utils.*;
+
+/**
+ * MIPS Streaming Assembler
+ * 
+ * Assembles the source while reading it, without keeping the parsed instructions. Each instruction is encoded as soon
+ * as its line is read; a jump to a label which is not defined yet is recorded and the word is patched when the whole
+ * source has been read. Only the labels and the forward references are kept in memory, so that sources of any size
+ * can be assembled into a file.
+ * 
+ * Unlike the {@link Assembler}, a label defined more than once is reported as a syntax error, as the jumps before the
+ * second definition have already been encoded.
+ */
+public class StreamingAssembler {
+	// number of words buffered before they are written to the channel
+	private static final int BUFFER_WORDS = 1 << 14;
+
+	private Map<String, Integer> labelMap = new HashMap<String, Integer>(); // pairs of label and address
+	private Map<String, Integer> labelIds; // ids of labels referred before they are defined
+	private List<String> labelNames; // labels indexed by the ids
+
+	// forward references (the step number, the word without the target, the label id and the line number)
+	private int fixups;
+	private int[] fixupStep, fixupWord, fixupLabel, fixupLine;
+
+	/**
+	 * Assembles the source.
+	 * 
+	 * @param reader
+	 *            the reader of the source
+	 * @return the binary code of each instruction
+	 * @throws IOException
+	 *             If an I/O error occurred
+	 * @throws SyntaxException
+	 *             If there was a syntax error in the source
+	 * @throws LabelNotFoundException
+	 *             If undefined label was used
+	 */
+	public int[] assemble(Reader reader) throws IOException, SyntaxException, LabelNotFoundException {
+		ArrayOutput output = new ArrayOutput();
+		int size = assemble(reader, output);
+		return Arrays.copyOf(output.words, size);
+	}
+
+	/**
+	 * Assembles the source into the channel. The words are written from the current position of the channel.
+	 * 
+	 * @param reader
+	 *            the reader of the source
+	 * @param channel
+	 *            the channel to write the binary code
+	 * @param order
+	 *            the byte order of the words
+	 * @return the number of instructions
+	 * @throws IOException
+	 *             If an I/O error occurred
+	 * @throws SyntaxException
+	 *             If there was a syntax error in the source
+	 * @throws LabelNotFoundException
+	 *             If undefined label was used
+	 */
+	public int assemble(Reader reader, FileChannel channel, ByteOrder order) throws IOException, SyntaxException,
+			LabelNotFoundException {
+		ChannelOutput output = new ChannelOutput(channel, order);
+		int size = assemble(reader, output);
+		channel.position(output.base + size * 4L);
+		return size;
+	}
+
+	/**
+	 * Assembles the source file.
+	 * 
+	 * @param source
+	 *            the source file
+	 * @return the binary code of each instruction
+	 * @throws IOException
+	 *             If an I/O error occurred
+	 * @throws SyntaxException
+	 *             If there was a syntax error in the source
+	 * @throws LabelNotFoundException
+	 *             If undefined label was used
+	 */
+	public int[] assemble(Path source) throws IOException, SyntaxException, LabelNotFoundException {
+		Reader reader = new InputStreamReader(Files.newInputStream(source), Charset.defaultCharset());
+		try {
+			return assemble(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Assembles the source file into the output file (in big endian).
+	 * 
+	 * @param source
+	 *            the source file
+	 * @param output
+	 *            the output file, which is created or overwritten
+	 * @return the number of instructions
+	 * @throws IOException
+	 *             If an I/O error occurred
+	 * @throws SyntaxException
+	 *             If there was a syntax error in the source
+	 * @throws LabelNotFoundException
+	 *             If undefined label was used
+	 */
+	public int assemble(Path source, Path output) throws IOException, SyntaxException, LabelNotFoundException {
+		Reader reader = new InputStreamReader(Files.newInputStream(source), Charset.defaultCharset());
+		try {
+			FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			try {
+				return assemble(reader, channel, ByteOrder.BIG_ENDIAN);
+			} finally {
+				channel.close();
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Returns the labels defined in the last assembled source.
+	 * 
+	 * @return the unmodifiable map of label and address
+	 */
+	public Map<String, Integer> getLabels() {
+		return Collections.unmodifiableMap(labelMap);
+	}
+
+	private int assemble(Reader reader, Output output) throws IOException, SyntaxException, LabelNotFoundException {
+		labelMap = new HashMap<String, Integer>();
+		labelIds = new HashMap<String, Integer>();
+		labelNames = new ArrayList<String>();
+		fixups = 0;
+		fixupStep = new int[16];
+		fixupWord = new int[16];
+		fixupLabel = new int[16];
+		fixupLine = new int[16];
+
+		SourceReader source = new SourceReader(reader);
+		Lexer lexer = new Lexer();
+		int stepNo = 0;
+		while (source.nextLine()) {
+			// if it was an empty line, continue to the next line
+			if (!lexer.lex(source.getBuffer(), source.getStart(), source.getEnd())) {
+				continue;
+			}
+			int lineNo = source.getLineNo();
+			Instruction inst = Assembler.parseLine(lexer, lineNo, stepNo, null);
+			if (lexer.hasLabel()) {
+				String label = lexer.getLabel();
+				if (labelMap.containsKey(label)) {
+					throw new SyntaxException("Duplicate label (" + label + ")", lineNo);
+				}
+				labelMap.put(label, stepNo);
+			}
+			if (inst != null) {
+				output.write(encode(inst, stepNo));
+				stepNo++;
+			}
+		}
+		output.flush();
+
+		// backpatch the forward references
+		for (int i = 0; i < fixups; i++) {
+			String label = labelNames.get(fixupLabel[i]);
+			Integer jumpAddr = labelMap.get(label);
+			if (jumpAddr == null) {
+				throw new LabelNotFoundException(label, fixupLine[i]);
+			}
+			output.patch(fixupStep[i], Assembler.link(fixupWord[i], jumpAddr, fixupStep[i]));
+		}
+		return stepNo;
+	}
+
+	private int encode(Instruction inst, int stepNo) throws LabelNotFoundException {
+		String label = inst.getLabel();
+		if ((label == null) || labelMap.containsKey(label)) {
+			return inst.toWord(labelMap);
+		}
+
+		// encode without the target, which is patched later
+		int word = Assembler.encodeUnlinked(inst);
+
+		Integer id = labelIds.get(label);
+		if (id == null) {
+			id = labelNames.size();
+			labelIds.put(label, id);
+			labelNames.add(label);
+		}
+		if (fixups == fixupStep.length) {
+			fixupStep = Arrays.copyOf(fixupStep, fixups * 2);
+			fixupWord = Arrays.copyOf(fixupWord, fixups * 2);
+			fixupLabel = Arrays.copyOf(fixupLabel, fixups * 2);
+			fixupLine = Arrays.copyOf(fixupLine, fixups * 2);
+		}
+		fixupStep[fixups] = stepNo;
+		fixupWord[fixups] = word;
+		fixupLabel[fixups] = id;
+		fixupLine[fixups] = inst.getLineNo();
+		fixups++;
+		return word;
+	}
+
+	/**
+	 * The destination of the binary code.
+	 */
+	private static abstract class Output {
+		abstract void write(int word) throws IOException;
+
+		abstract void flush() throws IOException;
+
+		abstract void patch(int stepNo, int word) throws IOException;
+	}
+
+	private static final class ArrayOutput extends Output {
+		private int[] words = new int[1024];
+		private int size;
+
+		@Override
+		void write(int word) {
+			if (size == words.length) {
+				words = Arrays.copyOf(words, size * 2);
+			}
+			words[size++] = word;
+		}
+
+		@Override
+		void flush() {
+		}
+
+		@Override
+		void patch(int stepNo, int word) {
+			words[stepNo] = word;
+		}
+	}
+
+	private static final class ChannelOutput extends Output {
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+		private final ByteBuffer patchBuffer;
+		private final long base; // the position of the first word
+		private long position; // the position to write the buffer
+
+		ChannelOutput(FileChannel channel, ByteOrder order) throws IOException {
+			this.channel = channel;
+			this.buffer = ByteBuffer.allocateDirect(BUFFER_WORDS * 4).order(order);
+			this.patchBuffer = ByteBuffer.allocate(4).order(order);
+			this.base = channel.position();
+			this.position = base;
+		}
+
+		@Override
+		void write(int word) throws IOException {
+			buffer.putInt(word);
+			if (!buffer.hasRemaining()) {
+				flush();
+			}
+		}
+
+		@Override
+		void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+			buffer.clear();
+		}
+
+		@Override
+		void patch(int stepNo, int word) throws IOException {
+			patchBuffer.clear();
+			patchBuffer.putInt(word);
+			patchBuffer.flip();
+			long target = base + stepNo * 4L;
+			while (patchBuffer.hasRemaining()) {
+				target += channel.write(patchBuffer, target);
+			}
+		}
+	}
+}
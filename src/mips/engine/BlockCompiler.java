@@ -0,0 +1,436 @@
+package mips.engine;
+
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.util.*;
+
+import static mips.engine.FlatCode.*;
+
+/**
+ * Translates a block of {@link FlatCode} into a hidden class implementing {@link CompiledBlock}.
+ * 
+ * The registers used by the block are kept in local variables of the generated method, so that the JIT compiler can
+ * optimize the block as a whole; the modified registers are written back to the register array before the block
+ * exits. The class file is emitted in version 49 format, which does not require stack map frames.
+ */
+public class BlockCompiler {
+	// JVM instructions used by the generated code
+	private static final int ICONST_0 = 0x03;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC_W = 0x13;
+	private static final int ILOAD = 0x15;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int ALOAD_1 = 0x2b;
+	private static final int ALOAD_2 = 0x2c;
+	private static final int IALOAD = 0x2e;
+	private static final int ISTORE = 0x36;
+	private static final int IASTORE = 0x4f;
+	private static final int POP = 0x57;
+	private static final int IADD = 0x60;
+	private static final int ISUB = 0x64;
+	private static final int ISHL = 0x78;
+	private static final int ISHR = 0x7a;
+	private static final int IUSHR = 0x7c;
+	private static final int IAND = 0x7e;
+	private static final int IOR = 0x80;
+	private static final int IXOR = 0x82;
+	private static final int IF_ICMPEQ = 0x9f;
+	private static final int IF_ICMPNE = 0xa0;
+	private static final int IRETURN = 0xac;
+	private static final int RETURN = 0xb1;
+	private static final int INVOKEVIRTUAL = 0xb6;
+	private static final int INVOKESPECIAL = 0xb7;
+
+	// the first local variable which holds a register ($n is stored in LOCAL_REGS + n)
+	private static final int LOCAL_REGS = 3;
+
+	private static final String CLASS_NAME = "mips/engine/CompiledBlock$Impl";
+	private static final String MEMORY = "mips/entity/Memory";
+
+	private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+	// constant pool of the class under construction
+	private ByteArrayOutputStream pool;
+	private Map<String, Integer> poolIndex;
+
+	// code of the method under construction
+	private ByteArrayOutputStream code;
+
+	/**
+	 * Compiles the instructions from <i>start</i> to <i>end</i> (inclusive). Only the last instruction may be a
+	 * branch or jump.
+	 * 
+	 * @param flatCode
+	 *            the code
+	 * @param start
+	 *            the program counter of the first instruction
+	 * @param end
+	 *            the program counter of the last instruction
+	 * @return the compiled block
+	 * @throws ReflectiveOperationException
+	 *             If the generated class could not be loaded
+	 */
+	public CompiledBlock compile(FlatCode flatCode, int start, int end) throws ReflectiveOperationException {
+		byte[] bytes = generate(flatCode.getCode(), start, end);
+		Class<?> c = lookup.defineHiddenClass(bytes, true).lookupClass();
+		return (CompiledBlock) c.getDeclaredConstructor().newInstance();
+	}
+
+	private byte[] generate(int[] flat, int start, int end) {
+		pool = new ByteArrayOutputStream();
+		poolIndex = new HashMap<String, Integer>();
+		int thisClass = classRef(CLASS_NAME);
+		int superClass = classRef("java/lang/Object");
+		int iface = classRef("mips/engine/CompiledBlock");
+		int codeAttr = utf8("Code");
+
+		// <init>
+		code = new ByteArrayOutputStream();
+		code.write(ALOAD_0);
+		code.write(INVOKESPECIAL);
+		u2(code, methodRef("java/lang/Object", "<init>", "()V"));
+		code.write(RETURN);
+		byte[] init = method(utf8("<init>"), utf8("()V"), codeAttr, 1, 1, code.toByteArray());
+
+		// execute
+		code = new ByteArrayOutputStream();
+		generateBody(flat, start, end);
+		byte[] execute = method(utf8("execute"), utf8("([I" + "L" + MEMORY + ";)I"), codeAttr, 4,
+				LOCAL_REGS + 32, code.toByteArray());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		u4(out, 0xCAFEBABE);
+		u2(out, 0); // minor version
+		u2(out, 49); // major version
+		u2(out, poolIndex.size() + 1);
+		out.write(pool.toByteArray(), 0, pool.size());
+		u2(out, 0x0031); // ACC_PUBLIC | ACC_FINAL | ACC_SUPER
+		u2(out, thisClass);
+		u2(out, superClass);
+		u2(out, 1); // interfaces
+		u2(out, iface);
+		u2(out, 0); // fields
+		u2(out, 2); // methods
+		out.write(init, 0, init.length);
+		out.write(execute, 0, execute.length);
+		u2(out, 0); // attributes
+		return out.toByteArray();
+	}
+
+	private void generateBody(int[] flat, int start, int end) {
+		boolean[] read = new boolean[32];
+		boolean[] written = new boolean[32];
+		for (int pc = start; pc <= end; pc++) {
+			int w = flat[pc << 1];
+			int s = (w >>> 16) & 0xFF;
+			int t = w >>> 24;
+			switch (w & 0xFF) {
+			case OP_SLL:
+			case OP_SRL:
+			case OP_SRA:
+				read[t] = true;
+				break;
+			case OP_ADDI:
+			case OP_ANDI:
+			case OP_ORI:
+			case OP_XORI:
+			case OP_LW:
+			case OP_JR:
+				read[s] = true;
+				break;
+			case OP_LUI:
+			case OP_J:
+			case OP_JAL:
+				break;
+			default:
+				read[s] = true;
+				read[t] = true;
+				break;
+			}
+		}
+
+		// load the registers into the local variables
+		for (int i = 1; i < 32; i++) {
+			if (read[i]) {
+				code.write(ALOAD_1);
+				pushInt(i);
+				code.write(IALOAD);
+				code.write(ISTORE);
+				code.write(LOCAL_REGS + i);
+			}
+		}
+
+		int memRead = methodRef(MEMORY, "read", "(I)I");
+		int memWrite = methodRef(MEMORY, "write", "(II)I");
+
+		for (int pc = start; pc <= end; pc++) {
+			int w = flat[pc << 1];
+			int imm = flat[(pc << 1) + 1];
+			int op = w & 0xFF;
+			int d = (w >>> 8) & 0xFF;
+			int s = (w >>> 16) & 0xFF;
+			int t = w >>> 24;
+
+			switch (op) {
+			case OP_ADD:
+				binary(s, t, IADD, d, written);
+				break;
+			case OP_SUB:
+				binary(s, t, ISUB, d, written);
+				break;
+			case OP_AND:
+				binary(s, t, IAND, d, written);
+				break;
+			case OP_OR:
+				binary(s, t, IOR, d, written);
+				break;
+			case OP_XOR:
+				binary(s, t, IXOR, d, written);
+				break;
+			case OP_SLL:
+				immediate(t, imm, ISHL, d, written);
+				break;
+			case OP_SRL:
+				immediate(t, imm, ISHR, d, written);
+				break;
+			case OP_SRA:
+				immediate(t, imm, IUSHR, d, written);
+				break;
+			case OP_ADDI:
+				immediate(s, imm, IADD, d, written);
+				break;
+			case OP_ANDI:
+				immediate(s, imm, IAND, d, written);
+				break;
+			case OP_ORI:
+				immediate(s, imm, IOR, d, written);
+				break;
+			case OP_XORI:
+				immediate(s, imm, IXOR, d, written);
+				break;
+			case OP_LW:
+				code.write(ALOAD_2);
+				immediate(s, imm, IADD);
+				code.write(INVOKEVIRTUAL);
+				u2(code, memRead);
+				store(d, written);
+				break;
+			case OP_SW:
+				code.write(ALOAD_2);
+				immediate(s, imm, IADD);
+				load(t);
+				code.write(INVOKEVIRTUAL);
+				u2(code, memWrite);
+				code.write(POP);
+				break;
+			case OP_LUI:
+				pushInt(imm);
+				store(d, written);
+				break;
+			default:
+				// branches and jumps are handled after the write back
+				break;
+			}
+		}
+
+		// write back the modified registers
+		for (int i = 1; i < 32; i++) {
+			if (written[i]) {
+				code.write(ALOAD_1);
+				pushInt(i);
+				load(i);
+				code.write(IASTORE);
+			}
+		}
+
+		int w = flat[end << 1];
+		int imm = flat[(end << 1) + 1];
+		int s = (w >>> 16) & 0xFF;
+		int t = w >>> 24;
+		switch (w & 0xFF) {
+		case OP_BEQ:
+		case OP_BNE:
+			// skip over "return target" unless the branch is taken
+			load(s);
+			load(t);
+			code.write(((w & 0xFF) == OP_BEQ) ? IF_ICMPNE : IF_ICMPEQ);
+			u2(code, 3 + pushLength(imm) + 1);
+			pushInt(imm);
+			code.write(IRETURN);
+			pushInt(end + 1);
+			code.write(IRETURN);
+			break;
+		case OP_JAL:
+			code.write(ALOAD_1);
+			pushInt(31);
+			pushInt(end + 1);
+			code.write(IASTORE);
+			pushInt(imm);
+			code.write(IRETURN);
+			break;
+		case OP_J:
+			pushInt(imm);
+			code.write(IRETURN);
+			break;
+		case OP_JR:
+			load(s);
+			code.write(IRETURN);
+			break;
+		default:
+			pushInt(end + 1);
+			code.write(IRETURN);
+			break;
+		}
+	}
+
+	private void binary(int s, int t, int insn, int d, boolean[] written) {
+		load(s);
+		load(t);
+		code.write(insn);
+		store(d, written);
+	}
+
+	private void immediate(int s, int imm, int insn, int d, boolean[] written) {
+		immediate(s, imm, insn);
+		store(d, written);
+	}
+
+	private void immediate(int s, int imm, int insn) {
+		load(s);
+		pushInt(imm);
+		code.write(insn);
+	}
+
+	private void load(int reg) {
+		if (reg == 0) {
+			code.write(ICONST_0);
+		} else {
+			code.write(ILOAD);
+			code.write(LOCAL_REGS + reg);
+		}
+	}
+
+	private void store(int reg, boolean[] written) {
+		if (reg == SCRATCH) {
+			code.write(POP); // writes to $0 are discarded
+		} else {
+			code.write(ISTORE);
+			code.write(LOCAL_REGS + reg);
+			written[reg] = true;
+		}
+	}
+
+	private void pushInt(int value) {
+		if ((-1 <= value) && (value <= 5)) {
+			code.write(ICONST_0 + value);
+		} else if ((Byte.MIN_VALUE <= value) && (value <= Byte.MAX_VALUE)) {
+			code.write(BIPUSH);
+			code.write(value);
+		} else if ((Short.MIN_VALUE <= value) && (value <= Short.MAX_VALUE)) {
+			code.write(SIPUSH);
+			u2(code, value);
+		} else {
+			code.write(LDC_W);
+			u2(code, intConst(value));
+		}
+	}
+
+	private static int pushLength(int value) {
+		if ((-1 <= value) && (value <= 5)) {
+			return 1;
+		} else if ((Byte.MIN_VALUE <= value) && (value <= Byte.MAX_VALUE)) {
+			return 2;
+		} else {
+			return 3;
+		}
+	}
+
+	private byte[] method(int name, int desc, int codeAttr, int maxStack, int maxLocals, byte[] body) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		u2(out, 0x0001); // ACC_PUBLIC
+		u2(out, name);
+		u2(out, desc);
+		u2(out, 1); // attributes
+		u2(out, codeAttr);
+		u4(out, 12 + body.length);
+		u2(out, maxStack);
+		u2(out, maxLocals);
+		u4(out, body.length);
+		out.write(body, 0, body.length);
+		u2(out, 0); // exception table
+		u2(out, 0); // attributes
+		return out.toByteArray();
+	}
+
+	private int utf8(String str) {
+		Integer index = poolIndex.get("U" + str);
+		if (index == null) {
+			index = poolIndex.size() + 1;
+			poolIndex.put("U" + str, index);
+			pool.write(1); // CONSTANT_Utf8
+			try {
+				new DataOutputStream(pool).writeUTF(str);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return index;
+	}
+
+	private int classRef(String name) {
+		int nameIndex = utf8(name);
+		Integer index = poolIndex.get("C" + name);
+		if (index == null) {
+			index = poolIndex.size() + 1;
+			poolIndex.put("C" + name, index);
+			pool.write(7); // CONSTANT_Class
+			u2(pool, nameIndex);
+		}
+		return index;
+	}
+
+	private int methodRef(String owner, String name, String desc) {
+		int ownerIndex = classRef(owner);
+		int nameIndex = utf8(name);
+		int descIndex = utf8(desc);
+		Integer ntIndex = poolIndex.get("N" + name + desc);
+		if (ntIndex == null) {
+			ntIndex = poolIndex.size() + 1;
+			poolIndex.put("N" + name + desc, ntIndex);
+			pool.write(12); // CONSTANT_NameAndType
+			u2(pool, nameIndex);
+			u2(pool, descIndex);
+		}
+		Integer index = poolIndex.get("M" + owner + "." + name + desc);
+		if (index == null) {
+			index = poolIndex.size() + 1;
+			poolIndex.put("M" + owner + "." + name + desc, index);
+			pool.write(10); // CONSTANT_Methodref
+			u2(pool, ownerIndex);
+			u2(pool, ntIndex);
+		}
+		return index;
+	}
+
+	private int intConst(int value) {
+		Integer index = poolIndex.get("I" + value);
+		if (index == null) {
+			index = poolIndex.size() + 1;
+			poolIndex.put("I" + value, index);
+			pool.write(3); // CONSTANT_Integer
+			u4(pool, value);
+		}
+		return index;
+	}
+
+	private static void u2(ByteArrayOutputStream out, int value) {
+		out.write(value >>> 8);
+		out.write(value);
+	}
+
+	private static void u4(ByteArrayOutputStream out, int value) {
+		u2(out, value >>> 16);
+		u2(out, value);
+	}
+}
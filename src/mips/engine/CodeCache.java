@@ -0,0 +1,176 @@
+package mips.engine;
+
+import java.util.*;
+
+import mips.entity.*;
+import mips.exception.*;
+
+/**
+ * Decoded instructions of the code placed in the memory.
+ * 
+ * The instruction at a program counter is the word at the text base address plus 4 times the program counter, so
+ * that a program can modify its own code or load code at run time. The instructions are decoded from the memory the
+ * first time they are executed and cached in pages of the same size as the pages of the {@link Memory}. A store to
+ * a cached page discards the whole page, which is decoded again as its instructions are executed.
+ * 
+ * Stores executed by the program have to be reported by {@link #invalidate(int)}, as the Memory does not notify
+ * them.
+ */
+public final class CodeCache {
+	// number of words in a page (4KB pages, as in Memory)
+	private static final int PAGE_BITS = 10;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	private final Memory memory;
+	private final int textBase;
+	private final int textSize;
+
+	// decoded instructions of each page (by the page number of the address)
+	private final Map<Integer, Instruction[]> pages = new HashMap<Integer, Instruction[]>();
+
+	// instructions of the same binary code are shared
+	private final Map<Integer, Instruction> interned = new HashMap<Integer, Instruction>();
+
+	// the page accessed most recently
+	private int lastPageNo = -1;
+	private Instruction[] lastPage;
+
+	private boolean modified; // if set to true, a store was made to the loaded program
+	private long invalidations;
+
+	/**
+	 * Constructs new CodeCache. The program must have been written to the memory.
+	 * 
+	 * @param memory
+	 *            the memory containing the code
+	 * @param textBase
+	 *            the address of the instruction at program counter 0 (a multiple of 4)
+	 * @param textSize
+	 *            the number of instructions of the program loaded at the text base address
+	 */
+	public CodeCache(Memory memory, int textBase, int textSize) {
+		if ((textBase & 3) != 0) {
+			throw new IllegalArgumentException("Invalid text base address (" + textBase + ")");
+		}
+		this.memory = memory;
+		this.textBase = textBase;
+		this.textSize = textSize;
+	}
+
+	/**
+	 * Returns the instruction.
+	 * 
+	 * @param pc
+	 *            the program counter
+	 * @return the instruction decoded from the memory
+	 * @throws SimulationException
+	 *             If the word in the memory was not a valid instruction
+	 */
+	public Instruction get(int pc) {
+		int addr = textBase + (pc << 2);
+		int pageNo = addr >>> (PAGE_BITS + 2);
+		Instruction[] page;
+		if (pageNo == lastPageNo) {
+			page = lastPage;
+		} else {
+			page = pages.get(pageNo);
+			if (page == null) {
+				page = new Instruction[PAGE_SIZE];
+				pages.put(pageNo, page);
+			}
+			lastPageNo = pageNo;
+			lastPage = page;
+		}
+		int offset = (addr >>> 2) & PAGE_MASK;
+		Instruction inst = page[offset];
+		if (inst == null) {
+			inst = decode(memory.read(addr), pc);
+			page[offset] = inst;
+		}
+		return inst;
+	}
+
+	private Instruction decode(int word, int pc) {
+		Instruction inst = interned.get(word);
+		if (inst == null) {
+			try {
+				inst = Instruction.createInstruction(word, pc + 1, pc);
+			} catch (InvalidInstructionException e) {
+				throw new SimulationException("Invalid instruction (" + String.format("%08X", word) + ")", pc);
+			}
+			interned.put(word, inst);
+		}
+		return inst;
+	}
+
+	/**
+	 * Discards the decoded instructions of the page containing the address, after the word at the address was
+	 * written.
+	 * 
+	 * @param addr
+	 *            the address written
+	 */
+	public void invalidate(int addr) {
+		if (Integer.compareUnsigned(addr - textBase, textSize << 2) < 0) {
+			modified = true;
+		}
+		invalidatePage(addr >>> (PAGE_BITS + 2));
+	}
+
+	/**
+	 * Discards the decoded instructions of the pages containing the consecutive words, after they were written.
+	 * 
+	 * @param addr
+	 *            the address of the first word written
+	 * @param len
+	 *            the number of words written
+	 */
+	public void invalidate(int addr, int len) {
+		if (len <= 0) {
+			return;
+		}
+		long from = (addr - textBase) & 0xFFFFFFFFL;
+		if ((from < ((long) textSize << 2)) || ((1L << 32) < from + ((long) len << 2))) {
+			// the words overlap the program (possibly wrapping around the end of the address space)
+			modified = true;
+		}
+		int first = addr >>> (PAGE_BITS + 2);
+		int last = (addr + ((len - 1) << 2)) >>> (PAGE_BITS + 2);
+		for (int pageNo = first;; pageNo = (pageNo + 1) & ((1 << (32 - PAGE_BITS - 2)) - 1)) {
+			invalidatePage(pageNo);
+			if (pageNo == last) {
+				break;
+			}
+		}
+	}
+
+	private void invalidatePage(int pageNo) {
+		if (pages.remove(pageNo) != null) {
+			invalidations++;
+			if (pageNo == lastPageNo) {
+				lastPageNo = -1;
+				lastPage = null;
+			}
+		}
+	}
+
+	/**
+	 * Returns if a store was made to the program loaded at the text base address, so that the code may differ from
+	 * the program.
+	 * 
+	 * @return true if the program was modified
+	 */
+	public boolean isModified() {
+		return modified;
+	}
+
+	/**
+	 * Returns the number of pages discarded by stores.
+	 * 
+	 * @return the number of pages
+	 */
+	public long getInvalidations() {
+		return invalidations;
+	}
+}
@@ -0,0 +1,19 @@
+package mips.engine;
+
+import mips.entity.*;
+
+/**
+ * A basic block translated into JVM bytecode by the {@link BlockCompiler}.
+ */
+public interface CompiledBlock {
+	/**
+	 * Executes all instructions of the block.
+	 * 
+	 * @param regs
+	 *            the registers of the interpreter
+	 * @param memory
+	 *            the memory
+	 * @return the next program counter
+	 */
+	int execute(int[] regs, Memory memory);
+}
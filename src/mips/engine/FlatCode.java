@@ -0,0 +1,424 @@
+package mips.engine;
+
+import java.util.*;
+
+import mips.entity.*;
+import mips.exception.*;
+
+/**
+ * Decoded instructions lowered into a packed primitive array.
+ * 
+ * Each instruction occupies two consecutive ints: the first one packs the operation code and the register operands
+ * (<code>op | d &lt;&lt; 8 | s &lt;&lt; 16 | t &lt;&lt; 24</code>) and the second one holds the pre-computed immediate (the
+ * sign-extended immediate, the shift amount, the upper-shifted LUI constant or the absolute branch/jump target).
+ * 
+ * Writes to register $0 are redirected to the scratch register {@link #SCRATCH}, so that $0 always reads as zero.
+ * 
+ * A branch or jump back to the start of its own basic block is marked with {@link #IDLE_CHECK} in the d field when
+ * the block has no stores. Such a loop cannot leave once the registers it writes stop changing, which is checked by
+ * the {@link IdleDetector} when the branch is taken.
+ * 
+ * {@link #fuse()} replaces the operation code of the first instruction of frequent adjacent pairs with a fused
+ * operation, which executes both instructions in one dispatch. The second instruction is left as it is, so that it
+ * can still be executed by itself (as a branch target, or when the execution stops between the two instructions).
+ * Fused code is run by the {@link FlatInterpreter} only.
+ */
+public final class FlatCode {
+	// Operation codes of the flat representation
+	public static final int OP_ADD = 0;
+	public static final int OP_SUB = 1;
+	public static final int OP_AND = 2;
+	public static final int OP_OR = 3;
+	public static final int OP_XOR = 4;
+	public static final int OP_SLL = 5;
+	public static final int OP_SRL = 6;
+	public static final int OP_SRA = 7;
+	public static final int OP_JR = 8;
+	public static final int OP_ADDI = 9;
+	public static final int OP_ANDI = 10;
+	public static final int OP_ORI = 11;
+	public static final int OP_XORI = 12;
+	public static final int OP_LW = 13;
+	public static final int OP_SW = 14;
+	public static final int OP_BEQ = 15;
+	public static final int OP_BNE = 16;
+	public static final int OP_LUI = 17;
+	public static final int OP_J = 18;
+	public static final int OP_JAL = 19;
+
+	// Fused operation codes (the operation of the first instruction followed by that of the second one)
+	public static final int OP_ANDI_BEQ = 20;
+	public static final int OP_ADDI_BNE = 21;
+	public static final int OP_LUI_ORI = 22;
+	public static final int OP_SLL_SLL = 23;
+	public static final int OP_SLL_SRL = 24;
+	public static final int OP_SRL_SLL = 25;
+	public static final int OP_SRL_SRL = 26;
+
+	/**
+	 * The register number which receives writes to $0.
+	 */
+	public static final int SCRATCH = 32;
+
+	/**
+	 * The d field of a branch or jump which closes a loop without side effects.
+	 */
+	public static final int IDLE_CHECK = 1;
+
+	/**
+	 * The number of registers the interpreter needs (32 architectural registers and the scratch register).
+	 */
+	public static final int REGISTERS = 33;
+
+	// the kind of the instruction of each operation code (that of the first instruction for the fused operations)
+	private static final Instruction.INST[] KINDS = { Instruction.INST.ADD, Instruction.INST.SUB,
+			Instruction.INST.AND, Instruction.INST.OR, Instruction.INST.XOR, Instruction.INST.SLL, Instruction.INST.SRL,
+			Instruction.INST.SRA, Instruction.INST.JR, Instruction.INST.ADDI, Instruction.INST.ANDI,
+			Instruction.INST.ORI, Instruction.INST.XORI, Instruction.INST.LW, Instruction.INST.SW, Instruction.INST.BEQ,
+			Instruction.INST.BNE, Instruction.INST.LUI, Instruction.INST.J, Instruction.INST.JAL, Instruction.INST.ANDI,
+			Instruction.INST.ADDI, Instruction.INST.LUI, Instruction.INST.SLL, Instruction.INST.SLL,
+			Instruction.INST.SRL, Instruction.INST.SRL };
+
+	private final int[] code;
+	private final int length;
+	private final int[][] idleRegs; // registers written in each loop marked with IDLE_CHECK
+
+	private FlatCode(int[] code, int length, int[][] idleRegs) {
+		this.code = code;
+		this.length = length;
+		this.idleRegs = idleRegs;
+	}
+
+	/**
+	 * Lowers the decoded instructions into the flat representation.
+	 * 
+	 * @param instList
+	 *            the decoded instructions (the index in the list is used as the program counter)
+	 * @return the lowered code
+	 */
+	public static FlatCode lower(List<Instruction> instList) {
+		int length = instList.size();
+		int[] code = new int[length * 2];
+		for (int pc = 0; pc < length; pc++) {
+			lower(instList.get(pc), pc, code);
+		}
+		return new FlatCode(code, length, markIdleLoops(code, length));
+	}
+
+	/**
+	 * Lowers the binary code into the flat representation, without creating Instruction objects.
+	 * 
+	 * @param words
+	 *            the binary code (the index in the array is used as the program counter)
+	 * @return the lowered code
+	 * @throws InvalidInstructionException
+	 *             If there was a invalid instruction in the binary code (the line number is the index plus 1)
+	 */
+	public static FlatCode lower(int[] words) throws InvalidInstructionException {
+		int length = words.length;
+		int[] code = new int[length * 2];
+		for (int pc = 0; pc < length; pc++) {
+			// split the word in the same way as Instruction.createInstruction(int, int, int)
+			int word = words[pc];
+			Instruction.INST inst = Instruction.getInstByCode(word);
+			if (inst == null) {
+				throw new InvalidInstructionException(String.format("%08X", word), pc + 1);
+			}
+			lower(inst, (word >>> 21) & 0x1F, (word >>> 16) & 0x1F, (word >>> 11) & 0x1F, (word >>> 6) & 0x1F,
+					(word << 16) >> 16, (word << 6) >> 6, pc, code);
+		}
+		return new FlatCode(code, length, markIdleLoops(code, length));
+	}
+
+	/**
+	 * Marks the branches and jumps which close loops without side effects.
+	 * 
+	 * @return the registers written in each marked loop, indexed by the program counter of the branch
+	 */
+	private static int[][] markIdleLoops(int[] code, int length) {
+		int[][] idleRegs = new int[length][];
+		for (int pc = 0; pc < length; pc++) {
+			int op = code[pc * 2] & 0xFF;
+			if ((op != OP_BEQ) && (op != OP_BNE) && (op != OP_J) && (op != OP_JAL)) {
+				continue;
+			}
+			int target = code[pc * 2 + 1];
+			if ((target < 0) || (pc < target)) {
+				continue;
+			}
+
+			// the loop must be a single block without stores
+			boolean[] written = new boolean[32];
+			boolean idle = true;
+			for (int i = target; (i < pc) && idle; i++) {
+				int w = code[i * 2];
+				int d = (w >>> 8) & 0xFF;
+				if (endsBlock(w & 0xFF) || ((w & 0xFF) == OP_SW)) {
+					idle = false;
+				} else if (d != SCRATCH) {
+					written[d] = true;
+				}
+			}
+			if (!idle) {
+				continue;
+			}
+			written[0] = false;
+			if (op == OP_JAL) {
+				written[31] = true;
+			}
+
+			int count = 0;
+			for (boolean w : written) {
+				count += w ? 1 : 0;
+			}
+			int[] regs = new int[count];
+			for (int i = 0, j = 0; i < 32; i++) {
+				if (written[i]) {
+					regs[j++] = i;
+				}
+			}
+			idleRegs[pc] = regs;
+			code[pc * 2] |= IDLE_CHECK << 8;
+		}
+		return idleRegs;
+	}
+
+	private static void lower(Instruction inst, int pc, int[] code) {
+		lower(inst.getInst(), inst.getRs(), inst.getRt(), inst.getRd(), inst.getSa(), inst.getImmediate(),
+				inst.getAddress(), pc, code);
+	}
+
+	private static void lower(Instruction.INST inst, int rs, int rt, int rd, int sa, int immediate, int address, int pc,
+			int[] code) {
+		int op = 0, d = 0, s = 0, t = 0, imm = 0;
+
+		switch (inst) {
+		case ADD:
+			op = OP_ADD;
+			break;
+		case SUB:
+			op = OP_SUB;
+			break;
+		case AND:
+			op = OP_AND;
+			break;
+		case OR:
+			op = OP_OR;
+			break;
+		case XOR:
+			op = OP_XOR;
+			break;
+		case SLL:
+			op = OP_SLL;
+			break;
+		case SRL:
+			op = OP_SRL;
+			break;
+		case SRA:
+			op = OP_SRA;
+			break;
+		case JR:
+			op = OP_JR;
+			break;
+		case ADDI:
+			op = OP_ADDI;
+			break;
+		case ANDI:
+			op = OP_ANDI;
+			break;
+		case ORI:
+			op = OP_ORI;
+			break;
+		case XORI:
+			op = OP_XORI;
+			break;
+		case LW:
+			op = OP_LW;
+			break;
+		case SW:
+			op = OP_SW;
+			break;
+		case BEQ:
+			op = OP_BEQ;
+			break;
+		case BNE:
+			op = OP_BNE;
+			break;
+		case LUI:
+			op = OP_LUI;
+			break;
+		case J:
+			op = OP_J;
+			break;
+		case JAL:
+			op = OP_JAL;
+			break;
+		}
+
+		switch (op) {
+		case OP_ADD:
+		case OP_SUB:
+		case OP_AND:
+		case OP_OR:
+		case OP_XOR:
+			// $rd <- $rs op $rt
+			d = dest(rd);
+			s = rs;
+			t = rt;
+			break;
+
+		case OP_SLL:
+		case OP_SRL:
+		case OP_SRA:
+			// $rd <- $rt op sa
+			d = dest(rd);
+			t = rt;
+			imm = sa;
+			break;
+
+		case OP_JR:
+			s = rs;
+			break;
+
+		case OP_ADDI:
+		case OP_ANDI:
+		case OP_ORI:
+		case OP_XORI:
+		case OP_LW:
+			// $rt <- $rs op imm
+			d = dest(rt);
+			s = rs;
+			imm = immediate;
+			break;
+
+		case OP_SW:
+			s = rs;
+			t = rt;
+			imm = immediate;
+			break;
+
+		case OP_BEQ:
+		case OP_BNE:
+			// the branch target is relative to the next instruction
+			s = rs;
+			t = rt;
+			imm = pc + 1 + immediate;
+			break;
+
+		case OP_LUI:
+			d = dest(rt);
+			imm = immediate << 16;
+			break;
+
+		case OP_J:
+		case OP_JAL:
+			imm = ((pc + 1) & 0xF0000000) + ((address << 2) / 4);
+			break;
+		}
+
+		code[pc * 2] = op | (d << 8) | (s << 16) | (t << 24);
+		code[pc * 2 + 1] = imm;
+	}
+
+	/**
+	 * Returns the code in which the frequent adjacent pairs of instructions are fused: ANDI and BEQ (bit test and
+	 * branch), ADDI and BNE (loop counter and branch), LUI and ORI (32-bit constant), and pairs of SLL and SRL. Each
+	 * instruction is fused at most once, with the instruction following it.
+	 * 
+	 * @return the fused code
+	 */
+	public FlatCode fuse() {
+		int[] fused = code.clone();
+		for (int pc = 0; pc + 1 < length; pc++) {
+			int op = fusedOp(code[pc << 1] & 0xFF, code[(pc + 1) << 1] & 0xFF);
+			if (op != -1) {
+				fused[pc << 1] = (code[pc << 1] & ~0xFF) | op;
+				pc++; // the second instruction must keep its own operation
+			}
+		}
+		return new FlatCode(fused, length, idleRegs);
+	}
+
+	private static int fusedOp(int first, int second) {
+		switch (first) {
+		case OP_ANDI:
+			return (second == OP_BEQ) ? OP_ANDI_BEQ : -1;
+		case OP_ADDI:
+			return (second == OP_BNE) ? OP_ADDI_BNE : -1;
+		case OP_LUI:
+			return (second == OP_ORI) ? OP_LUI_ORI : -1;
+		case OP_SLL:
+			return (second == OP_SLL) ? OP_SLL_SLL : (second == OP_SRL) ? OP_SLL_SRL : -1;
+		case OP_SRL:
+			return (second == OP_SLL) ? OP_SRL_SLL : (second == OP_SRL) ? OP_SRL_SRL : -1;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns if the operation ends a basic block.
+	 * 
+	 * @param op
+	 *            the operation code
+	 * @return true if the operation is a branch or jump
+	 */
+	static boolean endsBlock(int op) {
+		return (op == OP_JR) || (op == OP_BEQ) || (op == OP_BNE) || (op == OP_J) || (op == OP_JAL);
+	}
+
+	private static int dest(int reg) {
+		return (reg == 0) ? SCRATCH : reg;
+	}
+
+	/**
+	 * Returns the packed code. The array must not be modified.
+	 * 
+	 * @return the packed code
+	 */
+	int[] getCode() {
+		return code;
+	}
+
+	/**
+	 * Returns the kind of the instruction, without decoding the instruction.
+	 * 
+	 * @param pc
+	 *            the program counter
+	 * @return the kind of the instruction (that of the first instruction if the operation is fused)
+	 */
+	Instruction.INST getInst(int pc) {
+		return KINDS[code[pc << 1] & 0xFF];
+	}
+
+	/**
+	 * Returns the registers written in the loop closed by the branch.
+	 * 
+	 * @param pc
+	 *            the program counter of the branch marked with {@link #IDLE_CHECK}
+	 * @return the register numbers
+	 */
+	int[] getIdleRegisters(int pc) {
+		return idleRegs[pc];
+	}
+
+	/**
+	 * Returns if the branch closes a loop without side effects.
+	 * 
+	 * @param pc
+	 *            the program counter
+	 * @return true if the branch is marked with {@link #IDLE_CHECK}
+	 */
+	public boolean isIdleCheck(int pc) {
+		return idleRegs[pc] != null;
+	}
+
+	/**
+	 * Returns the number of instructions.
+	 * 
+	 * @return the number of instructions
+	 */
+	public int getLength() {
+		return length;
+	}
+}
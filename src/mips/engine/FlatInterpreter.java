@@ -0,0 +1,344 @@
+package mips.engine;
+
+import static mips.engine.FlatCode.*;
+import mips.entity.*;
+
+/**
+ * Executes {@link FlatCode} with an allocation-free dispatch loop.
+ * 
+ * The interpreter keeps the registers in its own primitive array; use {@link #load(RegisterFile)} and
+ * {@link #store(RegisterFile)} to exchange them with a {@link RegisterFile}.
+ * 
+ * The interpreter also runs fused code (see {@link FlatCode#fuse()}). A fused operation counts as two instructions,
+ * and only its first instruction is executed when the budget allows one more instruction.
+ */
+public class FlatInterpreter {
+	private final FlatCode flatCode;
+	private Memory memory;
+	private final int[] regs = new int[REGISTERS];
+	private int pc;
+	private long executed; // total number of executed instructions
+	private boolean halted;
+	private IdleDetector idleDetector;
+
+	/**
+	 * Constructs new interpreter.
+	 * 
+	 * @param flatCode
+	 *            the code to execute
+	 * @param memory
+	 *            the memory
+	 */
+	public FlatInterpreter(FlatCode flatCode, Memory memory) {
+		this.flatCode = flatCode;
+		this.memory = memory;
+	}
+
+	/**
+	 * Copies the contents of the register file into the interpreter.
+	 * 
+	 * @param regfile
+	 *            the register file
+	 */
+	public void load(RegisterFile regfile) {
+		for (int i = 0; i < 32; i++) {
+			regs[i] = regfile.get(i);
+		}
+		idleDetector = null; // the registers may have been changed from outside
+	}
+
+	/**
+	 * Copies the registers of the interpreter back into the register file.
+	 * 
+	 * @param regfile
+	 *            the register file
+	 */
+	public void store(RegisterFile regfile) {
+		for (int i = 1; i < 32; i++) {
+			regfile.set(i, regs[i]);
+		}
+	}
+
+	/**
+	 * Returns the registers of the interpreter.
+	 * 
+	 * @return the registers ($0 to $31 followed by the scratch register)
+	 */
+	protected int[] getRegisters() {
+		return regs;
+	}
+
+	/**
+	 * Returns the memory.
+	 * 
+	 * @return the memory
+	 */
+	protected Memory getMemory() {
+		return memory;
+	}
+
+	/**
+	 * Replaces the memory.
+	 * 
+	 * @param memory
+	 *            the memory
+	 */
+	public void setMemory(Memory memory) {
+		this.memory = memory;
+	}
+
+	/**
+	 * Returns the code.
+	 * 
+	 * @return the code
+	 */
+	protected FlatCode getFlatCode() {
+		return flatCode;
+	}
+
+	/**
+	 * Returns the current value of the program counter.
+	 * 
+	 * @return the program counter
+	 */
+	public int getPc() {
+		return pc;
+	}
+
+	/**
+	 * Sets the program counter.
+	 * 
+	 * @param pc
+	 *            the program counter
+	 */
+	public void setPc(int pc) {
+		this.pc = pc;
+	}
+
+	/**
+	 * Returns if the last run stopped because the program got stuck in a loop which can never be left. The program
+	 * counter points to the beginning of the loop.
+	 * 
+	 * @return true if the program halted
+	 */
+	public boolean isHalted() {
+		return halted;
+	}
+
+	/**
+	 * Records the instructions executed by a subclass without calling {@link #run(long)}.
+	 * 
+	 * @param steps
+	 *            the number of executed instructions
+	 * @param halted
+	 *            true if the program halted
+	 */
+	protected void executed(long steps, boolean halted) {
+		this.executed += steps;
+		this.halted = halted;
+	}
+
+	/**
+	 * Returns if the program counter points to an instruction.
+	 * 
+	 * @return true if there is an instruction at the program counter
+	 */
+	public boolean hasInstruction() {
+		return (0 <= pc) && (pc < flatCode.getLength());
+	}
+
+	/**
+	 * Executes instructions until <i>maxSteps</i> instructions are executed, the program counter leaves the code or
+	 * the program halts.
+	 * 
+	 * @param maxSteps
+	 *            the maximum number of instructions to execute
+	 * @return the number of executed instructions
+	 */
+	@SuppressWarnings("fallthrough")
+	public long run(long maxSteps) {
+		final int[] code = flatCode.getCode();
+		final int length = flatCode.getLength();
+		final int[] r = regs;
+		final Memory mem = memory;
+		int p = pc;
+		long steps = 0;
+		boolean stuck = false;
+
+		while ((steps < maxSteps) && (0 <= p) && (p < length)) {
+			int w = code[p << 1];
+			int imm = code[(p << 1) + 1];
+			int d = (w >>> 8) & 0xFF;
+			int s = (w >>> 16) & 0xFF;
+			int t = w >>> 24;
+			p++;
+			switch (w & 0xFF) {
+			case OP_ADD:
+				r[d] = r[s] + r[t];
+				break;
+			case OP_SUB:
+				r[d] = r[s] - r[t];
+				break;
+			case OP_AND:
+				r[d] = r[s] & r[t];
+				break;
+			case OP_OR:
+				r[d] = r[s] | r[t];
+				break;
+			case OP_XOR:
+				r[d] = r[s] ^ r[t];
+				break;
+			case OP_SLL:
+				r[d] = r[t] << imm;
+				break;
+			case OP_SRL:
+				r[d] = r[t] >> imm;
+				break;
+			case OP_SRA:
+				r[d] = r[t] >>> imm;
+				break;
+			case OP_JR:
+				p = r[s];
+				break;
+			case OP_ADDI:
+				r[d] = r[s] + imm;
+				break;
+			case OP_ANDI:
+				r[d] = r[s] & imm;
+				break;
+			case OP_ORI:
+				r[d] = r[s] | imm;
+				break;
+			case OP_XORI:
+				r[d] = r[s] ^ imm;
+				break;
+			case OP_LW:
+				r[d] = mem.read(r[s] + imm);
+				break;
+			case OP_SW:
+				mem.write(r[s] + imm, r[t]);
+				break;
+			case OP_BEQ:
+				if (r[s] == r[t]) {
+					if ((d == IDLE_CHECK) && isStuck(p - 1, steps + 1)) {
+						stuck = true;
+					}
+					p = imm;
+				}
+				break;
+			case OP_BNE:
+				if (r[s] != r[t]) {
+					if ((d == IDLE_CHECK) && isStuck(p - 1, steps + 1)) {
+						stuck = true;
+					}
+					p = imm;
+				}
+				break;
+			case OP_LUI:
+				r[d] = imm;
+				break;
+			case OP_JAL:
+				r[31] = p;
+				// NO BREAK HERE
+			case OP_J:
+				if ((d == IDLE_CHECK) && isStuck(p - 1, steps + 1)) {
+					stuck = true;
+				}
+				p = imm;
+				break;
+
+			// fused operations: the second instruction (at p) is executed unless the budget runs out
+			case OP_ANDI_BEQ:
+				r[d] = r[s] & imm;
+				if (steps + 1 < maxSteps) {
+					steps++;
+					w = code[p << 1];
+					if (r[(w >>> 16) & 0xFF] == r[w >>> 24]) {
+						if ((((w >>> 8) & 0xFF) == IDLE_CHECK) && isStuck(p, steps + 1)) {
+							stuck = true;
+						}
+						p = code[(p << 1) + 1];
+					} else {
+						p++;
+					}
+				}
+				break;
+			case OP_ADDI_BNE:
+				r[d] = r[s] + imm;
+				if (steps + 1 < maxSteps) {
+					steps++;
+					w = code[p << 1];
+					if (r[(w >>> 16) & 0xFF] != r[w >>> 24]) {
+						if ((((w >>> 8) & 0xFF) == IDLE_CHECK) && isStuck(p, steps + 1)) {
+							stuck = true;
+						}
+						p = code[(p << 1) + 1];
+					} else {
+						p++;
+					}
+				}
+				break;
+			case OP_LUI_ORI:
+				r[d] = imm;
+				if (steps + 1 < maxSteps) {
+					steps++;
+					w = code[p << 1];
+					r[(w >>> 8) & 0xFF] = r[(w >>> 16) & 0xFF] | code[(p << 1) + 1];
+					p++;
+				}
+				break;
+			case OP_SLL_SLL:
+				r[d] = r[t] << imm;
+				if (steps + 1 < maxSteps) {
+					steps++;
+					w = code[p << 1];
+					r[(w >>> 8) & 0xFF] = r[w >>> 24] << code[(p << 1) + 1];
+					p++;
+				}
+				break;
+			case OP_SLL_SRL:
+				r[d] = r[t] << imm;
+				if (steps + 1 < maxSteps) {
+					steps++;
+					w = code[p << 1];
+					r[(w >>> 8) & 0xFF] = r[w >>> 24] >> code[(p << 1) + 1];
+					p++;
+				}
+				break;
+			case OP_SRL_SLL:
+				r[d] = r[t] >> imm;
+				if (steps + 1 < maxSteps) {
+					steps++;
+					w = code[p << 1];
+					r[(w >>> 8) & 0xFF] = r[w >>> 24] << code[(p << 1) + 1];
+					p++;
+				}
+				break;
+			case OP_SRL_SRL:
+				r[d] = r[t] >> imm;
+				if (steps + 1 < maxSteps) {
+					steps++;
+					w = code[p << 1];
+					r[(w >>> 8) & 0xFF] = r[w >>> 24] >> code[(p << 1) + 1];
+					p++;
+				}
+				break;
+			}
+			steps++;
+			if (stuck) {
+				break;
+			}
+		}
+		pc = p;
+		halted = stuck;
+		executed += steps;
+		return steps;
+	}
+
+	private boolean isStuck(int branchPc, long steps) {
+		if (idleDetector == null) {
+			idleDetector = new IdleDetector(flatCode);
+		}
+		return idleDetector.isStuck(branchPc, regs, executed + steps);
+	}
+}
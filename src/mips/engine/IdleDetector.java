@@ -0,0 +1,99 @@
+package mips.engine;
+
+import mips.entity.*;
+
+/**
+ * Detects loops which can never be left.
+ * 
+ * A loop marked with {@link FlatCode#IDLE_CHECK} has no stores, so its next iteration depends only on the registers.
+ * When the registers written in the loop have the same values as one iteration before, the state of the machine is
+ * the same as one iteration before and the loop runs forever. A loop which writes no registers at all (e.g.,
+ * "finish: j finish") can never be left once its branch is taken.
+ */
+public class IdleDetector {
+	private final FlatCode flatCode;
+	private final int[][] snapshots; // values of the written registers at the previous iteration
+	private final long[] stamps; // step counts of the snapshots
+
+	/**
+	 * Constructs new detector.
+	 * 
+	 * @param flatCode
+	 *            the code
+	 */
+	public IdleDetector(FlatCode flatCode) {
+		this.flatCode = flatCode;
+		this.snapshots = new int[flatCode.getLength()][];
+		this.stamps = new long[flatCode.getLength()];
+	}
+
+	/**
+	 * Checks the loop when its branch is taken.
+	 * 
+	 * @param pc
+	 *            the program counter of the branch marked with {@link FlatCode#IDLE_CHECK}
+	 * @param regs
+	 *            the registers (in the layout of {@link FlatInterpreter})
+	 * @param step
+	 *            the total number of instructions executed so far, including the branch
+	 * @return true if the loop can never be left
+	 */
+	public boolean isStuck(int pc, int[] regs, long step) {
+		int[] written = flatCode.getIdleRegisters(pc);
+		if (written.length == 0) {
+			return true;
+		}
+		int[] snapshot = prepare(pc, written);
+		boolean same = isConsecutive(pc, step);
+		for (int i = 0; i < written.length; i++) {
+			int value = regs[written[i]];
+			same &= (snapshot[i] == value);
+			snapshot[i] = value;
+		}
+		stamps[pc] = step;
+		return same;
+	}
+
+	/**
+	 * Checks the loop when its branch is taken.
+	 * 
+	 * @param pc
+	 *            the program counter of the branch marked with {@link FlatCode#IDLE_CHECK}
+	 * @param regfile
+	 *            the register file
+	 * @param step
+	 *            the total number of instructions executed so far, including the branch
+	 * @return true if the loop can never be left
+	 */
+	public boolean isStuck(int pc, RegisterFile regfile, long step) {
+		int[] written = flatCode.getIdleRegisters(pc);
+		if (written.length == 0) {
+			return true;
+		}
+		int[] snapshot = prepare(pc, written);
+		boolean same = isConsecutive(pc, step);
+		for (int i = 0; i < written.length; i++) {
+			int value = regfile.get(written[i]);
+			same &= (snapshot[i] == value);
+			snapshot[i] = value;
+		}
+		stamps[pc] = step;
+		return same;
+	}
+
+	private int[] prepare(int pc, int[] written) {
+		if (snapshots[pc] == null) {
+			snapshots[pc] = new int[written.length];
+			stamps[pc] = Long.MIN_VALUE;
+		}
+		return snapshots[pc];
+	}
+
+	/**
+	 * Returns if the snapshot was taken exactly one iteration before, so that nothing but the loop ran in between.
+	 */
+	private boolean isConsecutive(int pc, long step) {
+		int target = flatCode.getCode()[(pc << 1) + 1];
+		return stamps[pc] == step - (pc - target + 1);
+	}
+}
@@ -0,0 +1,352 @@
+package mips.engine;
+
+import java.util.*;
+
+import static mips.engine.FlatCode.*;
+import mips.entity.*;
+
+/**
+ * Executes {@link FlatCode} for several inputs (lanes) in lockstep.
+ * 
+ * The registers are kept as structure of arrays (one array per register, indexed by lane), so that an instruction is
+ * executed for all the lanes by a single loop which the JIT compiler can vectorize. Every lane has its own program
+ * counter and memory. At each step the lanes at the lowest program counter execute the instruction there and the
+ * other lanes are masked off; lanes which diverged at a branch reconverge when their program counters meet again.
+ * Each lane therefore executes exactly the instructions it would execute alone.
+ * 
+ * A lane halts when it gets stuck in a loop marked with {@link FlatCode#IDLE_CHECK}, in the same way as
+ * {@link IdleDetector} checks a single machine.
+ */
+public class LockstepInterpreter {
+	private final FlatCode flatCode;
+	private final int lanes;
+	private final Memory[] memories;
+	private final int[][] regs; // [register][lane]
+	private final int[] pcs;
+	private final long[] steps;
+	private final long[] remaining; // budget of the current run
+	private final boolean[] halted;
+	private final int[][] snapshots; // values of the registers written in each idle-check loop, [pc][reg * lanes + lane]
+	private final long[][] stamps; // step counts of the snapshots, [pc][lane]
+	private final boolean[] mask;
+	private final int[] tmp; // results of masked operations
+
+	/**
+	 * Constructs new interpreter.
+	 * 
+	 * @param flatCode
+	 *            the code to execute
+	 * @param memories
+	 *            the memory of each lane
+	 */
+	public LockstepInterpreter(FlatCode flatCode, Memory[] memories) {
+		this.flatCode = flatCode;
+		this.lanes = memories.length;
+		this.memories = memories;
+		this.regs = new int[REGISTERS][lanes];
+		this.pcs = new int[lanes];
+		this.steps = new long[lanes];
+		this.remaining = new long[lanes];
+		this.halted = new boolean[lanes];
+		this.snapshots = new int[flatCode.getLength()][];
+		this.stamps = new long[flatCode.getLength()][];
+		this.mask = new boolean[lanes];
+		this.tmp = new int[lanes];
+	}
+
+	/**
+	 * Returns the number of lanes.
+	 * 
+	 * @return the number of lanes
+	 */
+	public int getLanes() {
+		return lanes;
+	}
+
+	/**
+	 * Copies the contents of the register file into the lane.
+	 * 
+	 * @param lane
+	 *            the lane
+	 * @param regfile
+	 *            the register file
+	 */
+	public void load(int lane, RegisterFile regfile) {
+		for (int i = 0; i < 32; i++) {
+			regs[i][lane] = regfile.get(i);
+		}
+	}
+
+	/**
+	 * Copies the registers of the lane back into the register file.
+	 * 
+	 * @param lane
+	 *            the lane
+	 * @param regfile
+	 *            the register file
+	 */
+	public void store(int lane, RegisterFile regfile) {
+		for (int i = 1; i < 32; i++) {
+			regfile.set(i, regs[i][lane]);
+		}
+	}
+
+	/**
+	 * Returns the program counter of the lane.
+	 * 
+	 * @param lane
+	 *            the lane
+	 * @return the program counter
+	 */
+	public int getPc(int lane) {
+		return pcs[lane];
+	}
+
+	/**
+	 * Sets the program counter of the lane.
+	 * 
+	 * @param lane
+	 *            the lane
+	 * @param pc
+	 *            the program counter
+	 */
+	public void setPc(int lane, int pc) {
+		pcs[lane] = pc;
+	}
+
+	/**
+	 * Returns if the lane halted in a loop which can never be left. The program counter of the lane points to the
+	 * beginning of the loop.
+	 * 
+	 * @param lane
+	 *            the lane
+	 * @return true if the lane halted
+	 */
+	public boolean isHalted(int lane) {
+		return halted[lane];
+	}
+
+	/**
+	 * Returns the number of instructions the lane has executed.
+	 * 
+	 * @param lane
+	 *            the lane
+	 * @return the number of executed instructions
+	 */
+	public long getSteps(int lane) {
+		return steps[lane];
+	}
+
+	/**
+	 * Executes instructions until every lane has executed <i>maxSteps</i> instructions or has left the code.
+	 * 
+	 * @param maxSteps
+	 *            the maximum number of instructions to execute in each lane
+	 * @return the number of executed instructions in all lanes
+	 */
+	public long run(long maxSteps) {
+		final int[] code = flatCode.getCode();
+		final int length = flatCode.getLength();
+		long total = 0;
+
+		for (int l = 0; l < lanes; l++) {
+			remaining[l] = halted[l] ? 0 : maxSteps;
+		}
+
+		while (true) {
+			// select the lowest program counter among the runnable lanes
+			int p = Integer.MAX_VALUE;
+			for (int l = 0; l < lanes; l++) {
+				if ((0 < remaining[l]) && (0 <= pcs[l]) && (pcs[l] < length) && (pcs[l] < p)) {
+					p = pcs[l];
+				}
+			}
+			if (p == Integer.MAX_VALUE) {
+				break;
+			}
+			int active = 0;
+			for (int l = 0; l < lanes; l++) {
+				mask[l] = (pcs[l] == p) && (0 < remaining[l]);
+				if (mask[l]) {
+					active++;
+					remaining[l]--;
+					steps[l]++;
+					pcs[l] = p + 1;
+				}
+			}
+			execute(code[p << 1], code[(p << 1) + 1], p, active == lanes);
+			total += active;
+
+			if (flatCode.isIdleCheck(p)) {
+				checkIdle(p, p - code[(p << 1) + 1] + 1);
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Checks the loop closed by the branch for the lanes which took the branch.
+	 */
+	private void checkIdle(int p, int loopLength) {
+		int[] written = flatCode.getIdleRegisters(p);
+		if (snapshots[p] == null) {
+			snapshots[p] = new int[written.length * lanes];
+			stamps[p] = new long[lanes];
+			Arrays.fill(stamps[p], Long.MIN_VALUE);
+		}
+		int[] snapshot = snapshots[p];
+		long[] stamp = stamps[p];
+		for (int l = 0; l < lanes; l++) {
+			if (!mask[l] || (pcs[l] == p + 1)) {
+				continue; // the lane did not take the branch
+			}
+			boolean same = (written.length == 0) || (stamp[l] == steps[l] - loopLength);
+			for (int i = 0; i < written.length; i++) {
+				int value = regs[written[i]][l];
+				same &= (snapshot[i * lanes + l] == value);
+				snapshot[i * lanes + l] = value;
+			}
+			stamp[l] = steps[l];
+			if (same) {
+				halted[l] = true;
+				remaining[l] = 0;
+			}
+		}
+	}
+
+	private void execute(int w, int imm, int p, boolean all) {
+		final int d = (w >>> 8) & 0xFF;
+		final int[] S = regs[(w >>> 16) & 0xFF];
+		final int[] T = regs[w >>> 24];
+		final int[] out = all ? regs[d] : tmp; // masked operations are committed afterwards
+		final int n = lanes;
+
+		switch (w & 0xFF) {
+		case OP_ADD:
+			for (int l = 0; l < n; l++) {
+				out[l] = S[l] + T[l];
+			}
+			break;
+		case OP_SUB:
+			for (int l = 0; l < n; l++) {
+				out[l] = S[l] - T[l];
+			}
+			break;
+		case OP_AND:
+			for (int l = 0; l < n; l++) {
+				out[l] = S[l] & T[l];
+			}
+			break;
+		case OP_OR:
+			for (int l = 0; l < n; l++) {
+				out[l] = S[l] | T[l];
+			}
+			break;
+		case OP_XOR:
+			for (int l = 0; l < n; l++) {
+				out[l] = S[l] ^ T[l];
+			}
+			break;
+		case OP_SLL:
+			for (int l = 0; l < n; l++) {
+				out[l] = T[l] << imm;
+			}
+			break;
+		case OP_SRL:
+			for (int l = 0; l < n; l++) {
+				out[l] = T[l] >> imm;
+			}
+			break;
+		case OP_SRA:
+			for (int l = 0; l < n; l++) {
+				out[l] = T[l] >>> imm;
+			}
+			break;
+		case OP_ADDI:
+			for (int l = 0; l < n; l++) {
+				out[l] = S[l] + imm;
+			}
+			break;
+		case OP_ANDI:
+			for (int l = 0; l < n; l++) {
+				out[l] = S[l] & imm;
+			}
+			break;
+		case OP_ORI:
+			for (int l = 0; l < n; l++) {
+				out[l] = S[l] | imm;
+			}
+			break;
+		case OP_XORI:
+			for (int l = 0; l < n; l++) {
+				out[l] = S[l] ^ imm;
+			}
+			break;
+		case OP_LUI:
+			for (int l = 0; l < n; l++) {
+				out[l] = imm;
+			}
+			break;
+		case OP_LW:
+			for (int l = 0; l < n; l++) {
+				if (mask[l]) {
+					out[l] = memories[l].read(S[l] + imm);
+				}
+			}
+			break;
+		case OP_SW:
+			for (int l = 0; l < n; l++) {
+				if (mask[l]) {
+					memories[l].write(S[l] + imm, T[l]);
+				}
+			}
+			return;
+		case OP_BEQ:
+			for (int l = 0; l < n; l++) {
+				if (mask[l] && (S[l] == T[l])) {
+					pcs[l] = imm;
+				}
+			}
+			return;
+		case OP_BNE:
+			for (int l = 0; l < n; l++) {
+				if (mask[l] && (S[l] != T[l])) {
+					pcs[l] = imm;
+				}
+			}
+			return;
+		case OP_JR:
+			for (int l = 0; l < n; l++) {
+				if (mask[l]) {
+					pcs[l] = S[l];
+				}
+			}
+			return;
+		case OP_J:
+			for (int l = 0; l < n; l++) {
+				if (mask[l]) {
+					pcs[l] = imm;
+				}
+			}
+			return;
+		case OP_JAL:
+			int[] ra = regs[31];
+			for (int l = 0; l < n; l++) {
+				if (mask[l]) {
+					ra[l] = p + 1;
+					pcs[l] = imm;
+				}
+			}
+			return;
+		}
+
+		if (!all) {
+			int[] D = regs[d];
+			for (int l = 0; l < n; l++) {
+				if (mask[l]) {
+					D[l] = tmp[l];
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,261 @@
+package mips.engine;
+
+import java.util.*;
+
+import mips.entity.*;
+
+/**
+ * Execution counts of a program, collected by the {@link ProfilingInterpreter}.
+ * 
+ * The counts are kept per program counter only; the histogram of the instructions, the number of memory accesses
+ * and the source lines are derived from the program when they are requested. The kinds of the instructions are
+ * taken from the {@link FlatCode} of the program, so that a Program decoded lazily is not decoded by the profile.
+ */
+public final class Profile {
+	private final Program program;
+	private final long[] counts; // executions of each instruction
+	private final long[] taken; // taken branches of each BEQ/BNE
+
+	/**
+	 * Constructs new empty Profile.
+	 * 
+	 * @param program
+	 *            the program to profile
+	 */
+	public Profile(Program program) {
+		this.program = program;
+		this.counts = new long[program.size()];
+		this.taken = new long[program.size()];
+	}
+
+	long[] getCounts() {
+		return counts;
+	}
+
+	long[] getTakenCounts() {
+		return taken;
+	}
+
+	/**
+	 * Returns the profiled program.
+	 * 
+	 * @return the program
+	 */
+	public Program getProgram() {
+		return program;
+	}
+
+	/**
+	 * Clears all the counts.
+	 */
+	public void clear() {
+		Arrays.fill(counts, 0);
+		Arrays.fill(taken, 0);
+	}
+
+	/**
+	 * Returns the number of executions of the instruction.
+	 * 
+	 * @param pc
+	 *            the program counter
+	 * @return the number of executions
+	 */
+	public long getCount(int pc) {
+		return counts[pc];
+	}
+
+	/**
+	 * Returns the number of times the branch (BEQ or BNE) was taken.
+	 * 
+	 * @param pc
+	 *            the program counter of the branch
+	 * @return the number of taken branches (0 if the instruction is not a conditional branch)
+	 */
+	public long getTaken(int pc) {
+		return taken[pc];
+	}
+
+	/**
+	 * Returns the number of times the branch (BEQ or BNE) was not taken.
+	 * 
+	 * @param pc
+	 *            the program counter of the branch
+	 * @return the number of branches not taken (0 if the instruction is not a conditional branch)
+	 */
+	public long getNotTaken(int pc) {
+		return isBranch(pc) ? counts[pc] - taken[pc] : 0;
+	}
+
+	/**
+	 * Returns the number of executions of the kind of instructions.
+	 * 
+	 * @param inst
+	 *            the kind of instructions
+	 * @return the number of executions
+	 */
+	public long getCount(Instruction.INST inst) {
+		FlatCode flatCode = program.getFlatCode();
+		long count = 0;
+		for (int pc = 0; pc < counts.length; pc++) {
+			if ((counts[pc] != 0) && (flatCode.getInst(pc) == inst)) {
+				count += counts[pc];
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the total number of executed instructions.
+	 * 
+	 * @return the number of executed instructions
+	 */
+	public long getTotal() {
+		long total = 0;
+		for (long count : counts) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the number of memory loads.
+	 * 
+	 * @return the number of executed LW instructions
+	 */
+	public long getLoads() {
+		return getCount(Instruction.INST.LW);
+	}
+
+	/**
+	 * Returns the number of memory stores.
+	 * 
+	 * @return the number of executed SW instructions
+	 */
+	public long getStores() {
+		return getCount(Instruction.INST.SW);
+	}
+
+	/**
+	 * Returns the number of executions of the instructions on the source line.
+	 * 
+	 * @param lineNo
+	 *            the line number of the source code
+	 * @return the number of executions
+	 */
+	public long getLineCount(int lineNo) {
+		long count = 0;
+		for (int pc = 0; pc < counts.length; pc++) {
+			if (program.getLineNo(pc) == lineNo) {
+				count += counts[pc];
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Creates a report of the instruction histogram and the most frequently executed instructions.
+	 * 
+	 * @param top
+	 *            the maximum number of instructions listed as hot spots
+	 * @return the report
+	 */
+	public String report(int top) {
+		// the histogram and the executed instructions are collected in one pass
+		FlatCode flatCode = program.getFlatCode();
+		long[] histogram = new long[Instruction.INST.values().length];
+		List<Integer> executed = new ArrayList<Integer>();
+		long total = 0;
+		for (int pc = 0; pc < counts.length; pc++) {
+			if (counts[pc] != 0) {
+				histogram[flatCode.getInst(pc).ordinal()] += counts[pc];
+				executed.add(pc);
+				total += counts[pc];
+			}
+		}
+
+		StringBuffer strbuf = new StringBuffer();
+		strbuf.append("Total = " + total + " instructions (" + histogram[Instruction.INST.LW.ordinal()] + " loads, "
+				+ histogram[Instruction.INST.SW.ordinal()] + " stores)\n");
+
+		strbuf.append("----- Instructions -----\n");
+		for (Instruction.INST inst : Instruction.INST.values()) {
+			long count = histogram[inst.ordinal()];
+			if (count != 0) {
+				strbuf.append(inst + "\t" + count + "\t" + percentage(count, total) + "\n");
+			}
+		}
+
+		strbuf.append("----- Hot Spots -----\n");
+		Integer[] pcs = executed.toArray(new Integer[executed.size()]);
+		Arrays.sort(pcs, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Long.compare(counts[b], counts[a]);
+			}
+		});
+		for (int i = 0; (i < top) && (i < pcs.length); i++) {
+			int pc = pcs[i];
+			Instruction inst = program.get(pc);
+			strbuf.append("line " + program.getLineNo(pc) + " (pc " + pc + ")\t" + counts[pc] + "\t"
+					+ percentage(counts[pc], total) + "\t" + inst.toCode().trim());
+			if (isBranch(pc)) {
+				strbuf.append("\t; taken " + taken[pc] + ", not taken " + getNotTaken(pc));
+			}
+			strbuf.append("\n");
+		}
+		return strbuf.toString();
+	}
+
+	/**
+	 * Annotates the source code with the number of executions of each line.
+	 * 
+	 * @param src
+	 *            the assembler source the program was assembled from
+	 * @return the source code with the counts prepended to each line
+	 */
+	public String annotate(String src) {
+		List<String> lines = new ArrayList<String>();
+		Scanner scanner = new Scanner(src);
+		while (scanner.hasNext()) {
+			lines.add(scanner.nextLine());
+		}
+
+		// the counts of the lines (index 0 is unused), and the branch on each line
+		long[] lineCounts = new long[lines.size() + 1];
+		boolean[] hasInstruction = new boolean[lines.size() + 1];
+		Map<Integer, String> branches = new HashMap<Integer, String>();
+		for (int pc = 0; pc < counts.length; pc++) {
+			int lineNo = program.getLineNo(pc);
+			if ((lineNo < 1) || (lines.size() < lineNo)) {
+				continue;
+			}
+			lineCounts[lineNo] += counts[pc];
+			hasInstruction[lineNo] = true;
+			if (isBranch(pc)) {
+				branches.put(lineNo, "\t; taken " + taken[pc] + ", not taken " + getNotTaken(pc));
+			}
+		}
+
+		StringBuffer strbuf = new StringBuffer();
+		for (int lineNo = 1; lineNo <= lines.size(); lineNo++) {
+			String column = hasInstruction[lineNo] ? Long.toString(lineCounts[lineNo]) : "";
+			for (int i = column.length(); i < 12; i++) {
+				strbuf.append(' ');
+			}
+			strbuf.append(column + " | " + lines.get(lineNo - 1));
+			if (branches.containsKey(lineNo)) {
+				strbuf.append(branches.get(lineNo));
+			}
+			strbuf.append("\n");
+		}
+		return strbuf.toString();
+	}
+
+	private boolean isBranch(int pc) {
+		Instruction.INST inst = program.getFlatCode().getInst(pc);
+		return (inst == Instruction.INST.BEQ) || (inst == Instruction.INST.BNE);
+	}
+
+	private static String percentage(long count, long total) {
+		return (total == 0) ? "-" : String.format("%.1f%%", count * 100.0 / total);
+	}
+}
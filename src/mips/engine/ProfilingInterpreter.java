@@ -0,0 +1,97 @@
+package mips.engine;
+
+import static mips.engine.FlatCode.*;
+import mips.entity.*;
+
+/**
+ * Executes {@link FlatCode}, counting the executions of each instruction into a {@link Profile}.
+ * 
+ * The straight-line part of each block is run by the {@link FlatInterpreter} and counted afterwards; the branch
+ * ending the block is run alone, so that its condition can be recorded. Interpreters without profiling pay nothing
+ * for it, as the counting lives only in this class.
+ */
+public class ProfilingInterpreter extends FlatInterpreter {
+	private final Profile profile;
+	private final int[] blockLength; // number of instructions from each pc to the end of its block
+
+	/**
+	 * Constructs new interpreter.
+	 * 
+	 * @param flatCode
+	 *            the code to execute
+	 * @param memory
+	 *            the memory
+	 * @param profile
+	 *            the profile to count into
+	 */
+	public ProfilingInterpreter(FlatCode flatCode, Memory memory, Profile profile) {
+		super(flatCode, memory);
+		int length = flatCode.getLength();
+		int[] code = flatCode.getCode();
+		this.profile = profile;
+		this.blockLength = new int[length];
+
+		for (int pc = length - 1; 0 <= pc; pc--) {
+			if (FlatCode.endsBlock(code[pc << 1] & 0xFF) || (pc == length - 1)) {
+				blockLength[pc] = 1;
+			} else {
+				blockLength[pc] = blockLength[pc + 1] + 1;
+			}
+		}
+	}
+
+	/**
+	 * Returns the profile.
+	 * 
+	 * @return the profile
+	 */
+	public Profile getProfile() {
+		return profile;
+	}
+
+	@Override
+	public long run(long maxSteps) {
+		final int[] code = getFlatCode().getCode();
+		final int[] r = getRegisters();
+		final long[] counts = profile.getCounts();
+		final long[] taken = profile.getTakenCounts();
+		long steps = 0;
+
+		executed(0, false);
+		while ((steps < maxSteps) && hasInstruction()) {
+			int p = getPc();
+			long n = Math.min(blockLength[p] - 1, maxSteps - steps);
+			if (0 < n) {
+				// straight-line instructions
+				n = super.run(n);
+				for (int i = 0; i < n; i++) {
+					counts[p + i]++;
+				}
+				steps += n;
+				p = getPc();
+				if (maxSteps <= steps) {
+					break;
+				}
+			}
+
+			// the instruction ending the block
+			int w = code[p << 1];
+			int op = w & 0xFF;
+			boolean isTaken = false;
+			if (op == OP_BEQ) {
+				isTaken = (r[(w >>> 16) & 0xFF] == r[w >>> 24]);
+			} else if (op == OP_BNE) {
+				isTaken = (r[(w >>> 16) & 0xFF] != r[w >>> 24]);
+			}
+			steps += super.run(1);
+			counts[p]++;
+			if (isTaken) {
+				taken[p]++;
+			}
+			if (isHalted()) {
+				break;
+			}
+		}
+		return steps;
+	}
+}
@@ -0,0 +1,463 @@
+package mips.engine;
+
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import static mips.utils.Utilites.*;
+import mips.entity.*;
+import mips.exception.*;
+
+/**
+ * A decoded program, which is immutable and can be shared by any number of Simulators running concurrently.
+ * 
+ * A Program holds decoded (label-resolved) instructions only, and the instructions are never modified after the
+ * Program is constructed. The program is lowered into {@link FlatCode} once, when it is constructed.
+ * 
+ * Identical instructions (of the same binary code) are interned, so that a program holds only one Instruction for
+ * each distinct word. The line number and the step number of each instruction are kept by the program, and
+ * {@link #getLineNo(int)} and {@link #getStepNo(int)} have to be used instead of those of the shared Instruction. The
+ * shared Instructions are read-only ({@link Instruction#isReadOnly()}); an Instruction given to the Program whose
+ * arguments have not been parsed is replaced by a read-only copy.
+ * 
+ * A Program decoded lazily keeps the binary code instead, and creates the Instruction of each word only the first
+ * time it is requested (e.g., when the word is executed by the {@link mips.Simulator.ENGINE#INSTRUCTION} engine).
+ * The flat representation is lowered directly from the binary code, so that the other engines never create
+ * Instructions. This saves the time and memory of decoding large images of which only a small part is executed.
+ */
+public final class Program {
+	/**
+	 * The program without instructions.
+	 */
+	public static final Program EMPTY = new Program(new ArrayList<Instruction>());
+
+	private final int size;
+	private final List<Instruction> instList;
+	private final FlatCode flatCode;
+	private volatile FlatCode fusedCode; // fused when it is requested for the first time
+
+	// the line number and the step number of each instruction (null if they are the program counter plus 1 and the
+	// program counter)
+	private final int[] lineNos;
+	private final int[] stepNos;
+
+	// the interned instructions, if the program is decoded at once
+	private final Instruction[] insts;
+	private final int distinct;
+
+	// the binary code, the Instructions decoded so far and the interned ones, if the program is decoded lazily
+	private final int[] words;
+	private final AtomicReferenceArray<Instruction> decoded;
+	private final ConcurrentMap<Integer, Instruction> interned;
+
+	/**
+	 * Constructs new Program from the decoded instructions.
+	 * 
+	 * @param instList
+	 *            the decoded instructions (the index in the list is used as the program counter)
+	 * @throws IllegalArgumentException
+	 *             If an instruction jumps to a label which is not resolved
+	 */
+	public Program(List<Instruction> instList) {
+		this(instList, null, null);
+	}
+
+	private Program(List<Instruction> instList, int[] lineNos, int[] stepNos) {
+		this.size = instList.size();
+		if (lineNos == null) {
+			lineNos = new int[size];
+			stepNos = new int[size];
+			for (int pc = 0; pc < size; pc++) {
+				Instruction inst = instList.get(pc);
+				lineNos[pc] = inst.getLineNo();
+				stepNos[pc] = inst.getStepNo();
+			}
+		}
+		this.lineNos = isSequence(lineNos, 1) ? null : lineNos;
+		this.stepNos = isSequence(stepNos, 0) ? null : stepNos;
+
+		this.insts = new Instruction[size];
+		Map<Integer, Instruction> pool = new HashMap<Integer, Instruction>();
+		for (int pc = 0; pc < size; pc++) {
+			insts[pc] = intern(pool, instList.get(pc));
+		}
+		this.distinct = pool.size();
+		this.words = null;
+		this.decoded = null;
+		this.interned = null;
+		this.instList = createView();
+		this.flatCode = FlatCode.lower(this.instList);
+	}
+
+	private Program(int[] words, AtomicReferenceArray<Instruction> decoded, int[] lineNos, int[] stepNos)
+			throws InvalidInstructionException {
+		// lowering checks that every word is a valid instruction
+		this.flatCode = FlatCode.lower(words);
+		this.size = words.length;
+		this.lineNos = ((lineNos == null) || isSequence(lineNos, 1)) ? null : lineNos;
+		this.stepNos = ((stepNos == null) || isSequence(stepNos, 0)) ? null : stepNos;
+		this.insts = null;
+		this.distinct = 0;
+		this.words = words;
+		this.decoded = decoded;
+		this.interned = new ConcurrentHashMap<Integer, Instruction>();
+		for (int pc = 0; pc < size; pc++) {
+			Instruction inst = decoded.get(pc);
+			if (inst != null) {
+				interned.putIfAbsent(words[pc], inst);
+			}
+		}
+		this.instList = createView();
+	}
+
+	private List<Instruction> createView() {
+		return new AbstractList<Instruction>() {
+			@Override
+			public Instruction get(int index) {
+				return Program.this.get(index);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * Returns the instruction of the same binary code in the pool, or adds the instruction to the pool.
+	 */
+	private static Instruction intern(Map<Integer, Instruction> pool, Instruction inst) {
+		if (inst.getLabel() != null) {
+			// the target of the jump is unknown
+			throw new IllegalArgumentException("Label \"" + inst.getLabel() + "\" is not resolved on line "
+					+ inst.getLineNo() + ".");
+		}
+		if (!inst.isReadOnly()) {
+			// the copy cannot be modified by the owner of the instruction
+			try {
+				inst = inst.resolve(Collections.<String, Integer> emptyMap());
+			} catch (LabelNotFoundException e) {
+				// there are no labels to look up
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+		}
+		Integer word = inst.toWord();
+		Instruction shared = pool.get(word);
+		if (shared == null) {
+			pool.put(word, inst);
+			shared = inst;
+		}
+		return shared;
+	}
+
+	/**
+	 * Returns if each number is the index plus the offset, so that the array does not have to be kept.
+	 */
+	private static boolean isSequence(int[] numbers, int offset) {
+		for (int i = 0; i < numbers.length; i++) {
+			if (numbers[i] != i + offset) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Decodes the binary code assembled by the Assembler.
+	 * 
+	 * @param src
+	 *            the binary code
+	 * @return the decoded program
+	 * @throws SyntaxException
+	 *             If there was a syntax error in the binary code
+	 * @throws InvalidInstructionException
+	 *             If there was a invalid instruction in the binary code
+	 */
+	public static Program decode(String src) throws SyntaxException, InvalidInstructionException {
+		return new Program(decodeInstruction(src));
+	}
+
+	/**
+	 * Decodes the binary image, in which each instruction is a word of 4 bytes in the byte order of the buffer.
+	 * 
+	 * @param image
+	 *            the binary image
+	 * @return the decoded program
+	 * @throws SyntaxException
+	 *             If the size of the image was not a multiple of 4
+	 * @throws InvalidInstructionException
+	 *             If there was a invalid instruction in the image
+	 */
+	public static Program decode(ByteBuffer image) throws SyntaxException, InvalidInstructionException {
+		return new Program(decodeInstruction(image));
+	}
+
+	/**
+	 * Returns new Program which decodes the binary code lazily. The line number of each instruction is its index plus
+	 * 1.
+	 * 
+	 * @param words
+	 *            the binary code of each instruction, which is copied
+	 * @return the program
+	 * @throws InvalidInstructionException
+	 *             If there was a invalid instruction in the binary code
+	 */
+	public static Program decodeLazily(int[] words) throws InvalidInstructionException {
+		return new Program(words.clone(), new AtomicReferenceArray<Instruction>(words.length), null, null);
+	}
+
+	/**
+	 * Returns new Program which decodes the binary image lazily, in which each instruction is a word of 4 bytes in the
+	 * byte order of the buffer. The line number of each instruction is its index in the image plus 1.
+	 * 
+	 * @param image
+	 *            the binary image
+	 * @return the program
+	 * @throws SyntaxException
+	 *             If the size of the image was not a multiple of 4
+	 * @throws InvalidInstructionException
+	 *             If there was a invalid instruction in the image
+	 */
+	public static Program decodeLazily(ByteBuffer image) throws SyntaxException, InvalidInstructionException {
+		int[] words = readWords(image);
+		return new Program(words, new AtomicReferenceArray<Instruction>(words.length), null, null);
+	}
+
+	/**
+	 * Returns new Program which consists of the instructions of this program followed by the given instructions.
+	 * 
+	 * @param instructions
+	 *            the decoded instructions to append
+	 * @return the new program
+	 * @throws IllegalArgumentException
+	 *             If an instruction jumps to a label which is not resolved
+	 */
+	public Program append(List<Instruction> instructions) {
+		int newSize = size + instructions.size();
+		List<Instruction> newList = new ArrayList<Instruction>(newSize);
+		newList.addAll(instList);
+		newList.addAll(instructions);
+		int[] newLineNos = new int[newSize];
+		int[] newStepNos = new int[newSize];
+		copyNumbers(newLineNos, newStepNos);
+		for (int pc = size; pc < newSize; pc++) {
+			Instruction inst = newList.get(pc);
+			newLineNos[pc] = inst.getLineNo();
+			newStepNos[pc] = inst.getStepNo();
+		}
+		return new Program(newList, newLineNos, newStepNos);
+	}
+
+	/**
+	 * Returns new Program which consists of the instructions of this program followed by the binary code, which is
+	 * decoded lazily. The instructions of this program keep their line numbers, and the line number of each appended
+	 * instruction is its program counter plus 1.
+	 * 
+	 * @param binary
+	 *            the binary code of each instruction to append
+	 * @return the new program
+	 * @throws InvalidInstructionException
+	 *             If there was a invalid instruction in the binary code
+	 */
+	public Program appendLazily(int[] binary) throws InvalidInstructionException {
+		int newSize = size + binary.length;
+		int[] newWords = Arrays.copyOf(getWords(), newSize);
+		AtomicReferenceArray<Instruction> newDecoded = new AtomicReferenceArray<Instruction>(newSize);
+		for (int pc = 0; pc < size; pc++) {
+			Instruction inst = (decoded != null) ? decoded.get(pc) : insts[pc];
+			if (inst != null) {
+				newDecoded.set(pc, inst);
+			}
+		}
+		System.arraycopy(binary, 0, newWords, size, binary.length);
+
+		int[] newLineNos = null;
+		int[] newStepNos = null;
+		if (size != 0) {
+			newLineNos = new int[newSize];
+			newStepNos = new int[newSize];
+			copyNumbers(newLineNos, newStepNos);
+			for (int pc = size; pc < newSize; pc++) {
+				newLineNos[pc] = pc + 1;
+				newStepNos[pc] = pc;
+			}
+		}
+		return new Program(newWords, newDecoded, newLineNos, newStepNos);
+	}
+
+	private void copyNumbers(int[] newLineNos, int[] newStepNos) {
+		for (int pc = 0; pc < size; pc++) {
+			newLineNos[pc] = getLineNo(pc);
+			newStepNos[pc] = getStepNo(pc);
+		}
+	}
+
+	/**
+	 * Returns the instruction. The instruction may be shared with the other program counters of the same binary code,
+	 * so that its line number and step number are not those of the program counter.
+	 * 
+	 * @param pc
+	 *            the program counter
+	 * @return the instruction at the program counter
+	 */
+	public Instruction get(int pc) {
+		if (decoded == null) {
+			return insts[pc];
+		}
+		Instruction inst = decoded.get(pc);
+		if (inst == null) {
+			int word = words[pc];
+			inst = interned.get(word);
+			if (inst == null) {
+				try {
+					inst = Instruction.createInstruction(word, pc + 1, pc);
+				} catch (InvalidInstructionException e) {
+					// every word was checked when the program was lowered
+					throw new IllegalStateException(e.getMessage());
+				}
+				// another thread may have decoded the same word in the meantime
+				Instruction other = interned.putIfAbsent(word, inst);
+				if (other != null) {
+					inst = other;
+				}
+			}
+			decoded.set(pc, inst);
+		}
+		return inst;
+	}
+
+	/**
+	 * Returns the line number of the instruction.
+	 * 
+	 * @param pc
+	 *            the program counter
+	 * @return the line number of the source code
+	 */
+	public int getLineNo(int pc) {
+		if (lineNos != null) {
+			return lineNos[pc];
+		}
+		checkIndex(pc);
+		return pc + 1;
+	}
+
+	/**
+	 * Returns the step number of the instruction.
+	 * 
+	 * @param pc
+	 *            the program counter
+	 * @return the step number (the index of the instruction where it was decoded)
+	 */
+	public int getStepNo(int pc) {
+		if (stepNos != null) {
+			return stepNos[pc];
+		}
+		checkIndex(pc);
+		return pc;
+	}
+
+	private void checkIndex(int pc) {
+		if ((pc < 0) || (size <= pc)) {
+			throw new IndexOutOfBoundsException("Invalid program counter (" + pc + ")");
+		}
+	}
+
+	/**
+	 * Returns if the program is decoded lazily.
+	 * 
+	 * @return true if the instructions are decoded when they are requested
+	 */
+	public boolean isLazy() {
+		return decoded != null;
+	}
+
+	/**
+	 * Returns the number of instructions decoded so far. It is the same as {@link #size()} unless the program is
+	 * decoded lazily.
+	 * 
+	 * @return the number of decoded instructions
+	 */
+	public int getDecodedCount() {
+		if (decoded == null) {
+			return size;
+		}
+		int count = 0;
+		for (int pc = 0; pc < size; pc++) {
+			if (decoded.get(pc) != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of distinct Instructions held by the program, which are shared by the instructions of the same
+	 * binary code.
+	 * 
+	 * @return the number of Instructions
+	 */
+	public int getDistinctCount() {
+		return (interned != null) ? interned.size() : distinct;
+	}
+
+	/**
+	 * Returns the number of instructions.
+	 * 
+	 * @return the number of instructions
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the instructions.
+	 * 
+	 * @return the unmodifiable list of instructions
+	 */
+	public List<Instruction> getInstructions() {
+		return instList;
+	}
+
+	/**
+	 * Returns the binary code of the program.
+	 * 
+	 * @return the binary code of each instruction (the index in the array is the program counter)
+	 */
+	public int[] getWords() {
+		if (words != null) {
+			return words.clone();
+		}
+		int[] binary = new int[size];
+		for (int pc = 0; pc < size; pc++) {
+			binary[pc] = insts[pc].toWord();
+		}
+		return binary;
+	}
+
+	/**
+	 * Returns the program lowered into the flat representation.
+	 * 
+	 * @return the lowered code
+	 */
+	public FlatCode getFlatCode() {
+		return flatCode;
+	}
+
+	/**
+	 * Returns the program lowered into the flat representation with the frequent pairs of instructions fused (see
+	 * {@link FlatCode#fuse()}).
+	 * 
+	 * @return the fused code
+	 */
+	public FlatCode getFusedCode() {
+		FlatCode fused = fusedCode;
+		if (fused == null) {
+			// fusing again in another thread only creates an identical code
+			fused = flatCode.fuse();
+			fusedCode = fused;
+		}
+		return fused;
+	}
+}
@@ -0,0 +1,138 @@
+package mips.engine;
+
+import mips.entity.*;
+
+/**
+ * Executes {@link FlatCode}, translating frequently executed blocks into JVM bytecode.
+ * 
+ * A block starts at any executed program counter and extends to the next branch or jump (or at most
+ * {@value #MAX_BLOCK} instructions). The executions of each block are counted while it is interpreted, and the block
+ * is compiled by the {@link BlockCompiler} once the count reaches the threshold. Blocks closing a loop marked with
+ * {@link FlatCode#IDLE_CHECK} are always interpreted, so that the loop is checked by the {@link IdleDetector}.
+ */
+public class TranslatingInterpreter extends FlatInterpreter {
+	/**
+	 * The default number of executions before a block is compiled.
+	 */
+	public static final int DEFAULT_THRESHOLD = 1000;
+
+	// the maximum number of instructions in a block, which keeps the generated methods small
+	private static final int MAX_BLOCK = 256;
+
+	private final int threshold;
+	private final int[] blockLength; // number of instructions from each pc to the end of its block
+	private final int[] counters; // executions of each block (-1 if the block is not compiled)
+	private final CompiledBlock[] compiled;
+	private BlockCompiler compiler;
+
+	/**
+	 * Constructs new interpreter with the default threshold.
+	 * 
+	 * @param flatCode
+	 *            the code to execute
+	 * @param memory
+	 *            the memory
+	 */
+	public TranslatingInterpreter(FlatCode flatCode, Memory memory) {
+		this(flatCode, memory, DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * Constructs new interpreter.
+	 * 
+	 * @param flatCode
+	 *            the code to execute
+	 * @param memory
+	 *            the memory
+	 * @param threshold
+	 *            the number of executions before a block is compiled
+	 */
+	public TranslatingInterpreter(FlatCode flatCode, Memory memory, int threshold) {
+		super(flatCode, memory);
+		int length = flatCode.getLength();
+		int[] code = flatCode.getCode();
+		this.threshold = threshold;
+		this.blockLength = new int[length];
+		this.counters = new int[length];
+		this.compiled = new CompiledBlock[length];
+
+		for (int pc = length - 1; 0 <= pc; pc--) {
+			if (FlatCode.endsBlock(code[pc << 1] & 0xFF) || (pc == length - 1)) {
+				blockLength[pc] = 1;
+			} else {
+				blockLength[pc] = Math.min(blockLength[pc + 1] + 1, MAX_BLOCK);
+			}
+		}
+		for (int pc = 0; pc < length; pc++) {
+			if (flatCode.isIdleCheck(pc + blockLength[pc] - 1)) {
+				counters[pc] = -1; // never compiled
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of compiled blocks.
+	 * 
+	 * @return the number of compiled blocks
+	 */
+	public int getCompiledBlocks() {
+		int count = 0;
+		for (CompiledBlock block : compiled) {
+			if (block != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public long run(long maxSteps) {
+		final int length = getFlatCode().getLength();
+		final int[] r = getRegisters();
+		final Memory mem = getMemory();
+		int p = getPc();
+		long steps = 0;
+		long compiledSteps = 0;
+
+		executed(0, false);
+		while ((steps < maxSteps) && (0 <= p) && (p < length)) {
+			int len = blockLength[p];
+			CompiledBlock block = compiled[p];
+			if ((block == null) && (0 <= counters[p]) && (threshold <= ++counters[p])) {
+				block = translate(p);
+			}
+			if ((block != null) && (len <= maxSteps - steps)) {
+				p = block.execute(r, mem);
+				steps += len;
+				compiledSteps += len;
+			} else {
+				// interpret the block (or the part of it the budget allows)
+				executed(compiledSteps, false);
+				compiledSteps = 0;
+				setPc(p);
+				steps += super.run(Math.min(len, maxSteps - steps));
+				p = getPc();
+				if (isHalted()) {
+					break;
+				}
+			}
+		}
+		executed(compiledSteps, isHalted());
+		setPc(p);
+		return steps;
+	}
+
+	private CompiledBlock translate(int pc) {
+		if (compiler == null) {
+			compiler = new BlockCompiler();
+		}
+		try {
+			compiled[pc] = compiler.compile(getFlatCode(), pc, pc + blockLength[pc] - 1);
+		} catch (ReflectiveOperationException e) {
+			counters[pc] = -1; // keep interpreting the block
+		} catch (LinkageError e) {
+			counters[pc] = -1;
+		}
+		return compiled[pc];
+	}
+}
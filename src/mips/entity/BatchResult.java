@@ -0,0 +1,84 @@
+package mips.entity;
+
+import mips.exception.*;
+
+/**
+ * A class representing the result of the simulation for an input of a batch.
+ */
+public class BatchResult {
+	private final long index;
+	private final SimulationResult result;
+	private final SimulationException exception;
+	private final int[] registers;
+	private final int[] memory;
+
+	/**
+	 * Constructs new result.
+	 * 
+	 * @param index
+	 *            the index of the input
+	 * @param result
+	 *            the result of the simulation (null if the simulation failed)
+	 * @param exception
+	 *            the error occurred in the simulation (null if the simulation succeeded)
+	 * @param registers
+	 *            the registers after the simulation
+	 * @param memory
+	 *            the memory range requested for the batch after the simulation
+	 */
+	public BatchResult(long index, SimulationResult result, SimulationException exception, int[] registers,
+			int[] memory) {
+		this.index = index;
+		this.result = result;
+		this.exception = exception;
+		this.registers = registers;
+		this.memory = memory;
+	}
+
+	/**
+	 * Returns the index of the input in the batch.
+	 * 
+	 * @return the index (starting from 0)
+	 */
+	public long getIndex() {
+		return index;
+	}
+
+	/**
+	 * Returns the result of the simulation.
+	 * 
+	 * @return the result (null if the simulation failed)
+	 */
+	public SimulationResult getResult() {
+		return result;
+	}
+
+	/**
+	 * Returns the error occurred in the simulation.
+	 * 
+	 * @return the error (null if the simulation succeeded)
+	 */
+	public SimulationException getException() {
+		return exception;
+	}
+
+	/**
+	 * Returns the value of the register after the simulation.
+	 * 
+	 * @param i
+	 *            the register number
+	 * @return the value
+	 */
+	public int getRegister(int i) {
+		return registers[i];
+	}
+
+	/**
+	 * Returns the memory range requested for the batch.
+	 * 
+	 * @return the words in the memory range
+	 */
+	public int[] getMemory() {
+		return memory;
+	}
+}
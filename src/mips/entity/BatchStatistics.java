@@ -0,0 +1,109 @@
+package mips.entity;
+
+/**
+ * A class representing the throughput of a batch simulation.
+ */
+public class BatchStatistics {
+	private final long runs;
+	private final long failures;
+	private final long steps;
+	private final long elapsedNanos;
+	private final int threads;
+
+	/**
+	 * Constructs new statistics.
+	 * 
+	 * @param runs
+	 *            the number of simulated inputs
+	 * @param failures
+	 *            the number of inputs whose simulation failed
+	 * @param steps
+	 *            the total number of executed instructions
+	 * @param elapsedNanos
+	 *            the wall-clock time of the batch in nanoseconds
+	 * @param threads
+	 *            the number of worker threads
+	 */
+	public BatchStatistics(long runs, long failures, long steps, long elapsedNanos, int threads) {
+		this.runs = runs;
+		this.failures = failures;
+		this.steps = steps;
+		this.elapsedNanos = elapsedNanos;
+		this.threads = threads;
+	}
+
+	/**
+	 * Returns the number of simulated inputs.
+	 * 
+	 * @return the number of simulated inputs
+	 */
+	public long getRuns() {
+		return runs;
+	}
+
+	/**
+	 * Returns the number of inputs whose simulation failed.
+	 * 
+	 * @return the number of failures
+	 */
+	public long getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Returns the total number of executed instructions.
+	 * 
+	 * @return the number of executed instructions
+	 */
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Returns the wall-clock time of the batch.
+	 * 
+	 * @return the elapsed time in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * Returns the number of worker threads.
+	 * 
+	 * @return the number of threads
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Returns the number of simulated inputs per second.
+	 * 
+	 * @return the runs per second
+	 */
+	public double getRunsPerSecond() {
+		return (elapsedNanos == 0) ? 0 : runs * 1e9 / elapsedNanos;
+	}
+
+	/**
+	 * Returns the number of executed instructions per second.
+	 * 
+	 * @return the instructions per second
+	 */
+	public double getStepsPerSecond() {
+		return (elapsedNanos == 0) ? 0 : steps * 1e9 / elapsedNanos;
+	}
+
+	/**
+	 * Returns a string representation of the statistics.
+	 * 
+	 * @return a string representation of this statistics
+	 */
+	@Override
+	public String toString() {
+		return runs + " runs (" + failures + " failed), " + steps + " steps in " + (elapsedNanos / 1000000) + " ms on "
+				+ threads + " threads: " + String.format("%.1f", getRunsPerSecond()) + " runs/s, "
+				+ String.format("%.1f", getStepsPerSecond() / 1e6) + " M steps/s";
+	}
+}
@@ -4,17 +4,23 @@ import java.util.*;
 
 import static mips.utils.Utilites.*;
 import mips.exception.*;
+import mips.utils.*;
 
 /**
  * A class representing Instructions.
  * 
+ * An Instruction is read-only once its operands are set: the arguments of an instruction created from a mnemonic
+ * can be parsed successfully only once (they can be parsed again after a syntax error), and an instruction decoded
+ * from binary code cannot be parsed at all. Decoded instructions
+ * can therefore be shared (e.g., by a Program run by many Simulators).
+ * 
  * @author Kenichi Maehashi 
  */
 public class Instruction {
 	/**
 	 * Represents each kind of supported MIPS instructions.
 	 */
-	private static enum INST {
+	public static enum INST {
 		/**
 		 * ADD (R-type)
 		 */
@@ -126,6 +132,20 @@ public class Instruction {
 		}
 	}
 
+	// INST objects indexed by opcode (I-type and J-type) and by function code (R-type)
+	private static final INST[] INST_BY_OPCODE = new INST[64];
+	private static final INST[] INST_BY_FUNCTION = new INST[64];
+
+	static {
+		for (INST inst : INST.values()) {
+			if (inst.getFunction() == null) {
+				INST_BY_OPCODE[inst.getOpcode()] = inst;
+			} else {
+				INST_BY_FUNCTION[inst.getFunction()] = inst;
+			}
+		}
+	}
+
 	private final INST inst;
 	private final int lineNo;
 	private final int stepNo;
@@ -137,6 +157,7 @@ public class Instruction {
 	private Integer immediate = 0;
 	private Integer address = 0;
 	private String jumpto;
+	private boolean sealed; // if set to true, the operands can no longer be set
 
 	/**
 	 * Constructs new Instruction object.
@@ -154,6 +175,105 @@ public class Instruction {
 		this.stepNo = stepNo;
 	}
 
+	/**
+	 * Returns if the operands of the instruction can no longer be set.
+	 * 
+	 * @return true if the instruction is read-only
+	 */
+	public boolean isReadOnly() {
+		return sealed;
+	}
+
+	/**
+	 * Returns the instruction kind.
+	 * 
+	 * @return the instruction kind
+	 */
+	public INST getInst() {
+		return inst;
+	}
+
+	/**
+	 * Returns the line number.
+	 * 
+	 * @return line number for the current instruction
+	 */
+	public int getLineNo() {
+		return lineNo;
+	}
+
+	/**
+	 * Returns the step number.
+	 * 
+	 * @return step number for the current instruction
+	 */
+	public int getStepNo() {
+		return stepNo;
+	}
+
+	/**
+	 * Returns the rs field.
+	 * 
+	 * @return the rs register number
+	 */
+	public int getRs() {
+		return rs;
+	}
+
+	/**
+	 * Returns the rt field.
+	 * 
+	 * @return the rt register number
+	 */
+	public int getRt() {
+		return rt;
+	}
+
+	/**
+	 * Returns the rd field.
+	 * 
+	 * @return the rd register number
+	 */
+	public int getRd() {
+		return rd;
+	}
+
+	/**
+	 * Returns the shift amount.
+	 * 
+	 * @return the shift amount
+	 */
+	public int getSa() {
+		return sa;
+	}
+
+	/**
+	 * Returns the immediate value.
+	 * 
+	 * @return the immediate value (already sign-extended when decoded from binary code)
+	 */
+	public int getImmediate() {
+		return immediate;
+	}
+
+	/**
+	 * Returns the jump address.
+	 * 
+	 * @return the jump address (J-type instructions only)
+	 */
+	public int getAddress() {
+		return address;
+	}
+
+	/**
+	 * Returns the label to jump to.
+	 * 
+	 * @return the label (null if the target is given as a number)
+	 */
+	public String getLabel() {
+		return jumpto;
+	}
+
 	/**
 	 * Get INST object from the mnemonic.
 	 * 
@@ -180,6 +300,20 @@ public class Instruction {
 		return new Instruction(inst, lineNo, stepNo);
 	}
 
+	/**
+	 * Returns the value of the ASCII hexadecimal digit, or -1 if the character is not one.
+	 */
+	private static int hexDigit(char c) {
+		if (('0' <= c) && (c <= '9')) {
+			return c - '0';
+		} else if (('a' <= c) && (c <= 'f')) {
+			return c - 'a' + 10;
+		} else if (('A' <= c) && (c <= 'F')) {
+			return c - 'A' + 10;
+		}
+		return -1;
+	}
+
 	/**
 	 * Creates new Instruction object from binary code.
 	 * 
@@ -195,48 +329,69 @@ public class Instruction {
 	 */
 	public static Instruction createInstruction(String hexexp, int lineNo, int stepNo)
 			throws InvalidInstructionException {
-		INST inst;
-		int newOp, newRs, newRt, newRd, newSa, newFunc, newImm, newAddr;
-
 		// Check if the code is in the correct format
-		if (!hexexp.matches("^[a-zA-Z0-9]{8}$")) {
+		if (hexexp.length() != 8) {
 			throw new InvalidInstructionException(hexexp, lineNo);
 		}
+		int word = 0;
+		for (int i = 0; i < 8; i++) {
+			int digit = hexDigit(hexexp.charAt(i));
+			if (digit < 0) {
+				throw new InvalidInstructionException(hexexp, lineNo);
+			}
+			word = (word << 4) | digit;
+		}
 
-		// Decode it as hex and convert it into binary expression
-		String binexp = Long.toBinaryString(Long.decode("0x" + hexexp));
+		return createInstruction(word, hexexp, lineNo, stepNo);
+	}
 
-		// Supplement 0
-		while (binexp.length() < 32) {
-			binexp = "0" + binexp;
-		}
+	/**
+	 * Creates new Instruction object from binary code.
+	 * 
+	 * @param word
+	 *            the binary code
+	 * @param lineNo
+	 *            line no for the current instruction
+	 * @param stepNo
+	 *            step no for the current instruction
+	 * @return the new Instruction object
+	 * @throws InvalidInstructionException
+	 *             If word was a invalid instruction
+	 */
+	public static Instruction createInstruction(int word, int lineNo, int stepNo) throws InvalidInstructionException {
+		return createInstruction(word, null, lineNo, stepNo);
+	}
+
+	/**
+	 * Returns the kind of the instruction encoded in the binary code.
+	 * 
+	 * @param word
+	 *            the binary code
+	 * @return the INST object, or null if the code is not a supported instruction
+	 */
+	public static INST getInstByCode(int word) {
+		int op = word >>> 26;
+		return (op == 0) ? INST_BY_FUNCTION[word & 0x3F] : INST_BY_OPCODE[op];
+	}
 
-		// Split binexp into each part of instruction
-		newOp = Integer.parseInt(binexp.substring(0, 6), 2);
-		newRs = Integer.parseInt(binexp.substring(6, 11), 2);
-		newRt = Integer.parseInt(binexp.substring(11, 16), 2);
-		newRd = Integer.parseInt(binexp.substring(16, 21), 2);
-		newSa = Integer.parseInt(binexp.substring(21, 26), 2);
-		newFunc = Integer.parseInt(binexp.substring(26, 32), 2);
-		newImm = bStrToInt(binexp.substring(16, 32), 16);
-		newAddr = bStrToInt(binexp.substring(6, 32), 26);	
-		
+	private static Instruction createInstruction(int word, String hexexp, int lineNo, int stepNo)
+			throws InvalidInstructionException {
 		// Look for the instruction from the current op and func
-		inst = null;
-		for (INST newInst : INST.values()) {
-			if (newOp == newInst.getOpcode()) {
-				Integer newInstFunc = newInst.getFunction();
-				if ((newInstFunc == null) || (newInstFunc == newFunc)) {
-					inst = newInst;
-				}
-			}
-		}
+		INST inst = getInstByCode(word);
 
 		// No such mnemonic
 		if (inst == null) {
-			throw new InvalidInstructionException(hexexp, lineNo);
+			throw new InvalidInstructionException((hexexp != null) ? hexexp : String.format("%08X", word), lineNo);
 		}
 
+		// Split the word into each part of instruction
+		int newRs = (word >>> 21) & 0x1F;
+		int newRt = (word >>> 16) & 0x1F;
+		int newRd = (word >>> 11) & 0x1F;
+		int newSa = (word >>> 6) & 0x1F;
+		int newImm = (word << 16) >> 16; // sign-extended
+		int newAddr = (word << 6) >> 6; // sign-extended
+
 		Instruction instruction = new Instruction(inst, lineNo, stepNo);
 
 		switch (inst) {
@@ -278,6 +433,7 @@ public class Instruction {
 			break;
 		}
 
+		instruction.sealed = true;
 		return instruction;
 	}
 
@@ -377,186 +533,222 @@ public class Instruction {
 	 * 
 	 * @param args
 	 *            the array of arguments (e.g., {"$1", "$2", "4"})
-	 * @return true if the arguments are parsed successfully
 	 * @throws InvalidArgumentException
 	 *             If arguments contain a syntax error
+	 * @throws IllegalStateException
+	 *             If the arguments were already parsed successfully, or the instruction was decoded from binary code
 	 */
 	public void parseArgs(String[] args) throws InvalidArgumentException {
+		Lexer lexer = new Lexer();
+		lexer.setArguments(args);
+		parseArgs(lexer);
+	}
+
+	/**
+	 * Parse arguments of the line split by the lexer and set the values to the current instruction.
+	 * 
+	 * @param lexer
+	 *            the lexer holding the current line
+	 * @throws InvalidArgumentException
+	 *             If arguments contain a syntax error
+	 * @throws IllegalStateException
+	 *             If the arguments were already parsed successfully, or the instruction was decoded from binary code
+	 */
+	public void parseArgs(Lexer lexer) throws InvalidArgumentException {
+		if (sealed) {
+			throw new IllegalStateException("The instruction is read-only");
+		}
+		jumpto = null; // left by a failed parse
+
 		int argc = 0;
+		int found = lexer.getArgCount();
 
-		try {
-			switch (inst) {
-			case ADD:
-			case SUB:
-			case AND:
-			case OR:
-			case XOR:
-				// $rd, $rs, $rt
-				argc = 3;
-				rd = getRegisterNumber(args[0]);
-				rs = getRegisterNumber(args[1]);
-				rt = getRegisterNumber(args[2]);
-
-				if (!isDefined(rd, rs, rt)) {
-					throw new InvalidArgumentException(lineNo);
-				}
-				break;
-
-			case SLL:
-			case SRL:
-			case SRA:
-				// $rd, $rt, sa
-				argc = 3;
-				rd = getRegisterNumber(args[0]);
-				rt = getRegisterNumber(args[1]);
-				sa = dStrToInt(args[2], 5);
-				if (!isDefined(rd, rt, sa)) {
-					throw new InvalidArgumentException(lineNo);
-				}
-				break;
+		switch (inst) {
+		case ADD:
+		case SUB:
+		case AND:
+		case OR:
+		case XOR:
+			// $rd, $rs, $rt
+			argc = 3;
+			checkTooFew(argc, found);
+			rd = lexer.getRegister(0);
+			rs = lexer.getRegister(1);
+			rt = lexer.getRegister(2);
+			if ((rd < 0) || (rs < 0) || (rt < 0)) {
+				throw new InvalidArgumentException(lineNo);
+			}
+			break;
 
-			case JR:
-				// $rs
-				argc = 1;
-				rs = getRegisterNumber(args[0]);
-				if (!isDefined(rs)) {
-					throw new InvalidArgumentException(lineNo);
-				}
-				break;
-
-			case ADDI:
-			case ANDI:
-			case ORI:
-			case XORI:
-				// $rt, $rs, imm
-				argc = 3;
-				rt = getRegisterNumber(args[0]);
-				rs = getRegisterNumber(args[1]);
-				immediate = dStrToInt(args[2], 16);
-				if (!isDefined(rt, rs, immediate)) {
-					throw new InvalidArgumentException(lineNo);
-				}
-				break;
-
-			case LW:
-			case SW:
-				// $rt, imm($rs)
-				argc = 2;
-				rt = getRegisterNumber(args[0]);
-				if (args[1].matches("^.+\\(\\$\\d{1,2}\\)$")) {
-					int rsloc = args[1].indexOf('(');
-					rs = getRegisterNumber(args[1].substring(rsloc + 1, args[1].indexOf(')')));
-					immediate = dStrToInt(args[1].substring(0, rsloc), 16);
-				}
-				if (!isDefined(rt, rs, immediate)) {
-					throw new InvalidArgumentException(lineNo);
-				}
-				break;
-
-			case BEQ:
-			case BNE:
-				// $rs, $rt, label (or imm. address)
-				argc = 3;
-				rs = getRegisterNumber(args[0]);
-				rt = getRegisterNumber(args[1]);
-				if (isIntegerForm(args[2])) {
-					immediate = dStrToInt(args[2], 16);
-					if (!isDefined(immediate)) {
-						throw new InvalidArgumentException(args[2], lineNo);
-					}
-				} else {
-					jumpto = args[2];
-					if (!isDefined(jumpto)) {
-						throw new InvalidArgumentException(args[2], lineNo);
-					}
-				}
-				if (!isDefined(rt, rs)) {
-					throw new InvalidArgumentException(lineNo);
-				}
+		case SLL:
+		case SRL:
+		case SRA:
+			// $rd, $rt, sa
+			argc = 3;
+			checkTooFew(argc, found);
+			rd = lexer.getRegister(0);
+			rt = lexer.getRegister(1);
+			long newSa = lexer.getInteger(2, 5);
+			if ((rd < 0) || (rt < 0) || (newSa == Lexer.INVALID)) {
+				throw new InvalidArgumentException(lineNo);
+			}
+			sa = (int) newSa;
+			break;
 
-				break;
+		case JR:
+			// $rs
+			argc = 1;
+			checkTooFew(argc, found);
+			rs = lexer.getRegister(0);
+			if (rs < 0) {
+				throw new InvalidArgumentException(lineNo);
+			}
+			break;
 
-			case LUI:
-				// $rt, imm
-				argc = 2;
-				rt = getRegisterNumber(args[0]);
-				immediate = dStrToInt(args[1], 16);
-				if (!isDefined(rt, immediate)) {
+		case ADDI:
+		case ANDI:
+		case ORI:
+		case XORI:
+			// $rt, $rs, imm
+			argc = 3;
+			checkTooFew(argc, found);
+			rt = lexer.getRegister(0);
+			rs = lexer.getRegister(1);
+			long newImm = lexer.getInteger(2, 16);
+			if ((rt < 0) || (rs < 0) || (newImm == Lexer.INVALID)) {
+				throw new InvalidArgumentException(lineNo);
+			}
+			immediate = (int) newImm;
+			break;
+
+		case LW:
+		case SW:
+			// $rt, imm($rs)
+			argc = 2;
+			checkTooFew(argc, found);
+			rt = lexer.getRegister(0);
+			if (lexer.isMemoryOperand(1)) {
+				rs = lexer.getBaseRegister(1);
+				long newOffset = lexer.getOffset(1, 16);
+				if (newOffset == Lexer.INVALID) {
 					throw new InvalidArgumentException(lineNo);
 				}
-				break;
-
-			case J:
-			case JAL:
-				// label (or address)
-				argc = 1;
-				if (isIntegerForm(args[0])) {
-					address = dStrToInt(args[0], 26);
-					if (!isDefined(address)) {
-						throw new InvalidArgumentException(args[0], lineNo);
-					}
-				} else {
-					jumpto = args[0];
-					if (!isDefined(jumpto)) {
-						throw new InvalidArgumentException(args[0], lineNo);
-					}
+				immediate = (int) newOffset;
+			}
+			if ((rt < 0) || (rs < 0)) {
+				throw new InvalidArgumentException(lineNo);
+			}
+			break;
+
+		case BEQ:
+		case BNE:
+			// $rs, $rt, label (or imm. address)
+			argc = 3;
+			checkTooFew(argc, found);
+			rs = lexer.getRegister(0);
+			rt = lexer.getRegister(1);
+			if (lexer.isIntegerForm(2)) {
+				long newOffset = lexer.getInteger(2, 16);
+				if (newOffset == Lexer.INVALID) {
+					throw new InvalidArgumentException(lexer.getArg(2), lineNo);
 				}
-				break;
+				immediate = (int) newOffset;
+			} else {
+				jumpto = lexer.getArg(2);
+			}
+			if ((rt < 0) || (rs < 0)) {
+				throw new InvalidArgumentException(lineNo);
 			}
+			break;
 
-			if (args.length != argc) {
-				throw new InvalidArgumentException("Too many arguments; " + argc
-						+ " argument(s) are expected, but found " + args.length, lineNo);
+		case LUI:
+			// $rt, imm
+			argc = 2;
+			checkTooFew(argc, found);
+			rt = lexer.getRegister(0);
+			long newUpper = lexer.getInteger(1, 16);
+			if ((rt < 0) || (newUpper == Lexer.INVALID)) {
+				throw new InvalidArgumentException(lineNo);
 			}
-		} catch (ArrayIndexOutOfBoundsException e) {
-			throw new InvalidArgumentException("Too few arguments; " + argc + " arguments are expected, but found " + args.length + " arguments", lineNo);
+			immediate = (int) newUpper;
+			break;
+
+		case J:
+		case JAL:
+			// label (or address)
+			argc = 1;
+			checkTooFew(argc, found);
+			if (lexer.isIntegerForm(0)) {
+				long newAddr = lexer.getInteger(0, 26);
+				if (newAddr == Lexer.INVALID) {
+					throw new InvalidArgumentException(lexer.getArg(0), lineNo);
+				}
+				address = (int) newAddr;
+			} else {
+				jumpto = lexer.getArg(0);
+			}
+			break;
+		}
+
+		if (found != argc) {
+			throw new InvalidArgumentException("Too many arguments; " + argc + " argument(s) are expected, but found "
+					+ found, lineNo);
+		}
+		sealed = true;
+	}
+
+	private void checkTooFew(int argc, int found) throws InvalidArgumentException {
+		if (found < argc) {
+			throw new InvalidArgumentException("Too few arguments; " + argc + " arguments are expected, but found "
+					+ found + " arguments", lineNo);
 		}
 	}
 
 	/**
-	 * Converts the current instruction into hexadecimal expression.
+	 * Returns the decoded form of the current instruction, in which the label is resolved to the address. The result
+	 * is exactly the same as decoding the assembled binary code of the instruction.
 	 * 
 	 * @param labelMap
 	 *            the label map
-	 * @return the hexadecimal expression of the instruction
+	 * @return the new Instruction object
 	 * @throws LabelNotFoundException
 	 *             If the instruction is trying to jump to undefined label
 	 */
-	public String toHexString(Map<String, Integer> labelMap) throws LabelNotFoundException {
-		String str = Long.toHexString(Long.parseLong(toBinaryString(labelMap, ""), 2));
-		while (str.length() < 8) {
-			str = "0" + str;
+	public Instruction resolve(Map<String, Integer> labelMap) throws LabelNotFoundException {
+		try {
+			return createInstruction(toWord(labelMap), lineNo, stepNo);
+		} catch (InvalidInstructionException e) {
+			// the assembled code of a valid instruction is always decodable
+			throw new IllegalStateException(e.getMessage());
 		}
-		return str;
 	}
 
 	/**
-	 * Converts the current instruction into binary expression.
+	 * Encodes the current instruction, which is label-resolved or does not jump to a label, into binary code.
 	 * 
-	 * @param labelMap
-	 *            the label map
-	 * @return the binary expression of the instruction
-	 * @throws LabelNotFoundException
-	 *             If the instruction is trying to jump to undefined label
+	 * @return the binary code of the instruction
+	 * @throws IllegalStateException
+	 *             If the instruction is trying to jump to a label
 	 */
-	public String toBinaryString(Map<String, Integer> labelMap) throws LabelNotFoundException {
-		return toBinaryString(labelMap, " ");
+	public int toWord() {
+		try {
+			return toWord(Collections.<String, Integer> emptyMap());
+		} catch (LabelNotFoundException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
 	}
 
 	/**
-	 * Converts the current instruction into binary expression.
+	 * Encodes the current instruction into binary code.
 	 * 
 	 * @param labelMap
 	 *            the label map
-	 * @param separator
-	 *            the String which is used to split each part of instruction
-	 * @return the binary expression of the instruction, separated by the separator
+	 * @return the binary code of the instruction
 	 * @throws LabelNotFoundException
 	 *             If the instruction is trying to jump to undefined label
 	 */
-	public String toBinaryString(Map<String, Integer> labelMap, String separator) throws LabelNotFoundException {
-		StringBuffer strbuf = new StringBuffer(6);
-		strbuf.append(intToBinaryString(inst.getOpcode(), 6) + separator);
+	public int toWord(Map<String, Integer> labelMap) throws LabelNotFoundException {
+		int word = inst.getOpcode() << 26;
 
 		switch (inst) {
 		case ADD:
@@ -568,11 +760,11 @@ public class Instruction {
 		case SRL:
 		case SRA:
 		case JR:
-			strbuf.append(intToBinaryString(rs, 5) + separator);
-			strbuf.append(intToBinaryString(rt, 5) + separator);
-			strbuf.append(intToBinaryString(rd, 5) + separator);
-			strbuf.append(intToBinaryString(sa, 5) + separator);
-			strbuf.append(intToBinaryString(inst.getFunction(), 6));
+			word |= (rs & 0x1F) << 21;
+			word |= (rt & 0x1F) << 16;
+			word |= (rd & 0x1F) << 11;
+			word |= (sa & 0x1F) << 6;
+			word |= inst.getFunction();
 			break;
 
 		case ADDI:
@@ -582,39 +774,119 @@ public class Instruction {
 		case LW:
 		case SW:
 		case LUI:
-			strbuf.append(intToBinaryString(rs, 5) + separator);
-			strbuf.append(intToBinaryString(rt, 5) + separator);
-			strbuf.append(intToBinaryString(immediate, 16));
+			word |= (rs & 0x1F) << 21;
+			word |= (rt & 0x1F) << 16;
+			word |= immediate & 0xFFFF;
 			break;
 
 		case BEQ:
 		case BNE:
-			strbuf.append(intToBinaryString(rs, 5) + separator);
-			strbuf.append(intToBinaryString(rt, 5) + separator);
+			word |= (rs & 0x1F) << 21;
+			word |= (rt & 0x1F) << 16;
 			if (jumpto == null) {
-				strbuf.append(intToBinaryString(immediate, 16));
+				word |= immediate & 0xFFFF;
 			} else {
 				Integer jumpAddr = labelMap.get(jumpto);
 				if (jumpAddr == null) {
 					throw new LabelNotFoundException(jumpto, lineNo);
 				}
-				strbuf.append(intToBinaryString(jumpAddr - 1 - stepNo, 16));
+				word |= (jumpAddr - 1 - stepNo) & 0xFFFF;
 			}
 			break;
 
 		case J:
 		case JAL:
 			if (jumpto == null) {
-				strbuf.append(intToBinaryString(address, 26));
+				word |= address & 0x3FFFFFF;
 			} else {
 				Integer jumpAddr = labelMap.get(jumpto);
 				if (jumpAddr == null) {
 					throw new LabelNotFoundException(jumpto, lineNo);
 				}
-				strbuf.append(intToBinaryString(jumpAddr, 26));
+				word |= jumpAddr & 0x3FFFFFF;
 			}
 			break;
+		}
+		return word;
+	}
+
+	/**
+	 * Converts the current instruction into hexadecimal expression.
+	 * 
+	 * @param labelMap
+	 *            the label map
+	 * @return the hexadecimal expression of the instruction
+	 * @throws LabelNotFoundException
+	 *             If the instruction is trying to jump to undefined label
+	 */
+	public String toHexString(Map<String, Integer> labelMap) throws LabelNotFoundException {
+		return wordToHexString(toWord(labelMap));
+	}
+
+	/**
+	 * Converts the current instruction into binary expression.
+	 * 
+	 * @param labelMap
+	 *            the label map
+	 * @return the binary expression of the instruction
+	 * @throws LabelNotFoundException
+	 *             If the instruction is trying to jump to undefined label
+	 */
+	public String toBinaryString(Map<String, Integer> labelMap) throws LabelNotFoundException {
+		return toBinaryString(labelMap, " ");
+	}
+
+	/**
+	 * Converts the current instruction into binary expression.
+	 * 
+	 * @param labelMap
+	 *            the label map
+	 * @param separator
+	 *            the String which is used to split each part of instruction
+	 * @return the binary expression of the instruction, separated by the separator
+	 * @throws LabelNotFoundException
+	 *             If the instruction is trying to jump to undefined label
+	 */
+	public String toBinaryString(Map<String, Integer> labelMap, String separator) throws LabelNotFoundException {
+		int word = toWord(labelMap);
+		StringBuffer strbuf = new StringBuffer(32 + 5 * separator.length());
+		strbuf.append(intToBinaryString(word >>> 26, 6) + separator);
+
+		switch (inst) {
+		case ADD:
+		case SUB:
+		case AND:
+		case OR:
+		case XOR:
+		case SLL:
+		case SRL:
+		case SRA:
+		case JR:
+			strbuf.append(intToBinaryString(word >>> 21, 5) + separator);
+			strbuf.append(intToBinaryString(word >>> 16, 5) + separator);
+			strbuf.append(intToBinaryString(word >>> 11, 5) + separator);
+			strbuf.append(intToBinaryString(word >>> 6, 5) + separator);
+			strbuf.append(intToBinaryString(word, 6));
+			break;
+
+		case ADDI:
+		case ANDI:
+		case ORI:
+		case XORI:
+		case LW:
+		case SW:
+		case LUI:
+		case BEQ:
+		case BNE:
+			strbuf.append(intToBinaryString(word >>> 21, 5) + separator);
+			strbuf.append(intToBinaryString(word >>> 16, 5) + separator);
+			strbuf.append(intToBinaryString(word, 16));
+			break;
 
+		case J:
+		case JAL:
+			strbuf.append(intToBinaryString(word, 26));
+			break;
 		}
 		return strbuf.toString();
 	}
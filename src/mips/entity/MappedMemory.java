@@ -0,0 +1,225 @@
+package mips.entity;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * A class representing Memory stored outside of the Java heap.
+ * 
+ * The word at address <i>addr</i> is stored at byte offset <i>addr</i> (unsigned) of the storage, so an image of
+ * <i>size</i> bytes covers the addresses from 0 to <i>size</i> - 1 and a 4GB image covers the whole 32-bit address
+ * space. The storage is either allocated as direct buffers or memory-mapped from a file, which makes it possible to
+ * persist the memory and to load prepared data sets without copying them. Addresses outside of the storage and
+ * unaligned addresses are handled by the heap memory as usual.
+ */
+public class MappedMemory extends Memory implements Closeable {
+	// bytes in a segment; a ByteBuffer cannot exceed 2GB
+	private static final int SEGMENT_BITS = 30;
+	private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+
+	private final long size;
+	private final MappedByteBuffer[] mapped; // null if not mapped from a file
+	private final IntBuffer[] segments;
+	private final FileChannel channel;
+
+	private MappedMemory(long size, ByteBuffer[] buffers, FileChannel channel, ByteOrder order) {
+		this.size = size;
+		this.channel = channel;
+		this.segments = new IntBuffer[buffers.length];
+		this.mapped = (channel == null) ? null : new MappedByteBuffer[buffers.length];
+		for (int i = 0; i < buffers.length; i++) {
+			segments[i] = buffers[i].order(order).asIntBuffer();
+			if (mapped != null) {
+				mapped[i] = (MappedByteBuffer) buffers[i];
+			}
+		}
+	}
+
+	/**
+	 * Allocates new memory in direct buffers.
+	 * 
+	 * @param size
+	 *            the size of the storage in bytes (up to 4GB)
+	 * @return the new memory
+	 */
+	public static MappedMemory allocate(long size) {
+		checkSize(size);
+		ByteBuffer[] buffers = new ByteBuffer[segmentCount(size)];
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i] = ByteBuffer.allocateDirect((int) segmentLength(size, i));
+		}
+		return new MappedMemory(size, buffers, null, ByteOrder.BIG_ENDIAN);
+	}
+
+	/**
+	 * Maps the file as the memory. The file is created or extended when it is smaller than the size. Words in the file
+	 * are big-endian.
+	 * 
+	 * @param file
+	 *            the memory image file
+	 * @param size
+	 *            the size of the storage in bytes (up to 4GB)
+	 * @return the new memory
+	 * @throws IOException
+	 *             If the file could not be mapped
+	 */
+	public static MappedMemory map(Path file, long size) throws IOException {
+		return map(file, size, ByteOrder.BIG_ENDIAN);
+	}
+
+	/**
+	 * Maps the file as the memory. The file is created or extended when it is smaller than the size.
+	 * 
+	 * @param file
+	 *            the memory image file
+	 * @param size
+	 *            the size of the storage in bytes (up to 4GB)
+	 * @param order
+	 *            the byte order of the words in the file
+	 * @return the new memory
+	 * @throws IOException
+	 *             If the file could not be mapped
+	 */
+	public static MappedMemory map(Path file, long size, ByteOrder order) throws IOException {
+		checkSize(size);
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			ByteBuffer[] buffers = new ByteBuffer[segmentCount(size)];
+			for (int i = 0; i < buffers.length; i++) {
+				buffers[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * SEGMENT_SIZE, segmentLength(size, i));
+			}
+			return new MappedMemory(size, buffers, channel, order);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private static void checkSize(long size) {
+		if ((size <= 0) || ((1L << 32) < size) || ((size & 3) != 0)) {
+			throw new IllegalArgumentException("Invalid memory size (" + size + ")");
+		}
+	}
+
+	private static int segmentCount(long size) {
+		return (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS);
+	}
+
+	private static long segmentLength(long size, int i) {
+		return Math.min(SEGMENT_SIZE, size - i * SEGMENT_SIZE);
+	}
+
+	/**
+	 * Returns the size of the storage.
+	 * 
+	 * @return the size of the storage in bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	@Override
+	public int read(int addr) {
+		long offset = addr & 0xFFFFFFFFL;
+		if (((addr & 3) != 0) || (size <= offset)) {
+			return super.read(addr);
+		}
+		return segments[(int) (offset >>> SEGMENT_BITS)].get((int) (offset & (SEGMENT_SIZE - 1)) >>> 2);
+	}
+
+	@Override
+	public int write(int addr, int data) {
+		long offset = addr & 0xFFFFFFFFL;
+		if (((addr & 3) != 0) || (size <= offset)) {
+			return super.write(addr, data);
+		}
+		IntBuffer segment = segments[(int) (offset >>> SEGMENT_BITS)];
+		int index = (int) (offset & (SEGMENT_SIZE - 1)) >>> 2;
+		int oldData = segment.get(index);
+		segment.put(index, data);
+		return oldData;
+	}
+
+	@Override
+	public void read(int addr, int[] dst, int off, int len) {
+		while (0 < len) {
+			int count = storedWords(addr, len);
+			if (count == 0) {
+				dst[off] = super.read(addr);
+				count = 1;
+			} else {
+				long offset = addr & 0xFFFFFFFFL;
+				segments[(int) (offset >>> SEGMENT_BITS)].get((int) (offset & (SEGMENT_SIZE - 1)) >>> 2, dst, off,
+						count);
+			}
+			addr += count * 4;
+			off += count;
+			len -= count;
+		}
+	}
+
+	@Override
+	public void write(int addr, int[] src, int off, int len) {
+		while (0 < len) {
+			int count = storedWords(addr, len);
+			if (count == 0) {
+				super.write(addr, src[off]);
+				count = 1;
+			} else {
+				long offset = addr & 0xFFFFFFFFL;
+				segments[(int) (offset >>> SEGMENT_BITS)].put((int) (offset & (SEGMENT_SIZE - 1)) >>> 2, src, off,
+						count);
+			}
+			addr += count * 4;
+			off += count;
+			len -= count;
+		}
+	}
+
+	/**
+	 * Returns the number of consecutive words from the address which are in the same segment of the storage.
+	 * 
+	 * @param addr
+	 *            the address
+	 * @param len
+	 *            the maximum number of words
+	 * @return the number of words (0 if the address is not in the storage)
+	 */
+	private int storedWords(int addr, int len) {
+		long offset = addr & 0xFFFFFFFFL;
+		if (((addr & 3) != 0) || (size <= offset)) {
+			return 0;
+		}
+		long end = Math.min(size, ((offset >>> SEGMENT_BITS) + 1) << SEGMENT_BITS);
+		return (int) Math.min(len, (end - offset) >>> 2);
+	}
+
+	/**
+	 * Writes the changes back to the mapped file. Does nothing if the memory is not mapped from a file.
+	 */
+	public void force() {
+		if (mapped != null) {
+			for (MappedByteBuffer buffer : mapped) {
+				buffer.force();
+			}
+		}
+	}
+
+	/**
+	 * Writes the changes back to the mapped file and closes it. The storage remains accessible until the memory is
+	 * garbage collected.
+	 * 
+	 * @throws IOException
+	 *             If the file could not be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			force();
+			channel.close();
+		}
+	}
+}
@@ -1,26 +1,55 @@
 package mips.entity;
 
+import java.util.Arrays;
 import java.util.Map;
 import java.util.HashMap;
 
 /**
  * A class representing Memory.
  * 
+ * Word-aligned addresses are stored in a sparse page table of <code>int[]</code> pages, which are allocated when they
+ * are written for the first time. Unaligned addresses are rare and kept in a map. Addresses never written read as 0.
+ * 
  * @author Kenichi Maehashi 
  */
 public class Memory {
-	private Map<Integer, Integer> mem = new HashMap<Integer, Integer>();
+	// number of words in a page (4KB pages)
+	private static final int PAGE_BITS = 10;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	// number of pages in a directory
+	private static final int DIR_BITS = 10;
+	private static final int DIR_SIZE = 1 << DIR_BITS;
+	private static final int DIR_MASK = DIR_SIZE - 1;
+
+	// 30 bits of word address = DIR_BITS (directory) + DIR_BITS (page in the directory) + PAGE_BITS (word in the page)
+	private final int[][][] dirs = new int[DIR_SIZE][][];
+
+	// the page accessed most recently
+	private int lastPageNo = -1;
+	private int[] lastPage;
+
+	// data at unaligned addresses
+	private Map<Integer, Integer> unaligned;
 
 	/**
 	 * Read a data of the memory.
 	 * 
 	 * @param addr
 	 *            the memory address to read
-	 * @return the data at the address
+	 * @return the data at the address (0 if nothing was written)
 	 */
 	public int read(int addr) {
-		int data = mem.get(addr);
-		return (data == 0) ? 0 : data;
+		if ((addr & 3) != 0) {
+			return readUnaligned(addr);
+		}
+		int pageNo = addr >>> (PAGE_BITS + 2);
+		if (pageNo == lastPageNo) {
+			return lastPage[(addr >>> 2) & PAGE_MASK];
+		}
+		int[] page = getPage(pageNo, false);
+		return (page == null) ? 0 : page[(addr >>> 2) & PAGE_MASK];
 	}
 
 	/**
@@ -33,7 +62,126 @@ public class Memory {
 	 * @return the previous value at the address
 	 */
 	public int write(int addr, int data) {
-		Integer oldData = mem.put(addr, data);
+		if ((addr & 3) != 0) {
+			return writeUnaligned(addr, data);
+		}
+		int pageNo = addr >>> (PAGE_BITS + 2);
+		int[] page = (pageNo == lastPageNo) ? lastPage : getPage(pageNo, true);
+		int offset = (addr >>> 2) & PAGE_MASK;
+		int oldData = page[offset];
+		page[offset] = data;
+		return oldData;
+	}
+
+	/**
+	 * Read consecutive words of the memory.
+	 * 
+	 * @param addr
+	 *            the memory address of the first word (the following words are read from addr + 4, addr + 8, ...)
+	 * @param dst
+	 *            the array to store the data
+	 * @param off
+	 *            the first index of the array to store the data
+	 * @param len
+	 *            the number of words to read
+	 */
+	public void read(int addr, int[] dst, int off, int len) {
+		if ((addr & 3) != 0) {
+			for (int i = 0; i < len; i++) {
+				dst[off + i] = read(addr + i * 4);
+			}
+			return;
+		}
+		int word = addr >>> 2;
+		while (0 < len) {
+			int offset = word & PAGE_MASK;
+			int count = Math.min(len, PAGE_SIZE - offset);
+			int[] page = getPage(word >>> PAGE_BITS, false);
+			if (page == null) {
+				Arrays.fill(dst, off, off + count, 0);
+			} else {
+				System.arraycopy(page, offset, dst, off, count);
+			}
+			word = (word + count) & 0x3FFFFFFF;
+			off += count;
+			len -= count;
+		}
+	}
+
+	/**
+	 * Write consecutive words to the memory.
+	 * 
+	 * @param addr
+	 *            the memory address of the first word (the following words are written to addr + 4, addr + 8, ...)
+	 * @param src
+	 *            the array containing the data
+	 * @param off
+	 *            the first index of the array containing the data
+	 * @param len
+	 *            the number of words to write
+	 */
+	public void write(int addr, int[] src, int off, int len) {
+		if ((addr & 3) != 0) {
+			for (int i = 0; i < len; i++) {
+				write(addr + i * 4, src[off + i]);
+			}
+			return;
+		}
+		int word = addr >>> 2;
+		while (0 < len) {
+			int offset = word & PAGE_MASK;
+			int count = Math.min(len, PAGE_SIZE - offset);
+			System.arraycopy(src, off, getPage(word >>> PAGE_BITS, true), offset, count);
+			word = (word + count) & 0x3FFFFFFF;
+			off += count;
+			len -= count;
+		}
+	}
+
+	/**
+	 * Returns the page, allocating it if needed.
+	 * 
+	 * @param pageNo
+	 *            the page number (word address without the offset in the page)
+	 * @param allocate
+	 *            true to allocate the page when it does not exist
+	 * @return the page (null if it does not exist and allocate is false)
+	 */
+	private int[] getPage(int pageNo, boolean allocate) {
+		int[][] dir = dirs[pageNo >>> DIR_BITS];
+		if (dir == null) {
+			if (!allocate) {
+				return null;
+			}
+			dir = new int[DIR_SIZE][];
+			dirs[pageNo >>> DIR_BITS] = dir;
+		}
+		int[] page = dir[pageNo & DIR_MASK];
+		if (page == null) {
+			if (!allocate) {
+				return null;
+			}
+			page = new int[PAGE_SIZE];
+			dir[pageNo & DIR_MASK] = page;
+		}
+		lastPageNo = pageNo;
+		lastPage = page;
+		return page;
+	}
+
+	private int readUnaligned(int addr) {
+		if (unaligned == null) {
+			return 0;
+		}
+		Integer data = unaligned.get(addr);
+		return (data == null) ? 0 : data;
+	}
+
+	private int writeUnaligned(int addr, int data) {
+		if (unaligned == null) {
+			unaligned = new HashMap<Integer, Integer>();
+		}
+		Integer oldData = unaligned.put(addr, data);
 		return (oldData == null) ? 0 : oldData;
 	}
 }
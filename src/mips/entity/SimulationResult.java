@@ -0,0 +1,93 @@
+package mips.entity;
+
+/**
+ * A class representing the outcome of a (partial) simulation run.
+ */
+public class SimulationResult {
+	/**
+	 * Represents each reason why the simulation stopped.
+	 */
+	public static enum STATUS {
+		/**
+		 * The program counter reached the end of the program
+		 */
+		FINISHED,
+		/**
+		 * The program got stuck in a loop which can never be left
+		 */
+		HALTED,
+		/**
+		 * The simulation was killed
+		 */
+		KILLED,
+		/**
+		 * The simulation was paused
+		 */
+		PAUSED,
+		/**
+		 * The given number of instructions were executed
+		 */
+		STEP_LIMIT,
+		/**
+		 * The given time has elapsed
+		 */
+		TIMEOUT;
+	}
+
+	private final STATUS status;
+	private final int pc;
+	private final long steps;
+
+	/**
+	 * Constructs new result.
+	 * 
+	 * @param status
+	 *            the reason why the simulation stopped
+	 * @param pc
+	 *            the program counter when the simulation stopped
+	 * @param steps
+	 *            the number of instructions executed in the run
+	 */
+	public SimulationResult(STATUS status, int pc, long steps) {
+		this.status = status;
+		this.pc = pc;
+		this.steps = steps;
+	}
+
+	/**
+	 * Returns the reason why the simulation stopped.
+	 * 
+	 * @return the status
+	 */
+	public STATUS getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns the program counter when the simulation stopped.
+	 * 
+	 * @return the program counter
+	 */
+	public int getPc() {
+		return pc;
+	}
+
+	/**
+	 * Returns the number of instructions executed in the run.
+	 * 
+	 * @return the number of executed instructions
+	 */
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Returns a string representation of the result.
+	 * 
+	 * @return a string representation of this result
+	 */
+	@Override
+	public String toString() {
+		return status + ": {pc: " + pc + ", steps: " + steps + "}";
+	}
+}
@@ -0,0 +1,581 @@
+package mips.utils;
+
+import mips.entity.Instruction.INST;
+
+/**
+ * Splits a line of the assembler source into a label, a mnemonic and arguments in form of
+ * [[label:] mnemonic args][;comment].
+ * 
+ * The lexer works on the characters of the line in place and records the location of each part, so that no strings
+ * are created unless they are requested (e.g., for a label name or an error message). Mnemonics and register names
+ * are looked up in tables indexed by their first character, and malformed numbers are reported by return values
+ * instead of exceptions.
+ */
+public final class Lexer {
+	/**
+	 * The value returned by {@link #getInteger(int, int)} when the argument is not an integer in range.
+	 */
+	public static final long INVALID = Long.MIN_VALUE;
+
+	// Alias names for registers, indexed by the register number
+	private static final String[] REGISTER_NAMES = new String[] { "zero", "at", "v0", "v1", "a0", "a1", "a2", "a3",
+			"t0", "t1", "t2", "t3", "t4", "t5", "t6", "t7", "s0", "s1", "s2", "s3", "s4", "s5", "s6", "s7", "t8", "t9",
+			"k0", "k1", "gp", "sp", "fp", "ra" };
+
+	// Mnemonics and register numbers, indexed by the first character (in lower case)
+	private static final INST[][] MNEMONICS = new INST[26][];
+	private static final int[][] REGISTERS = new int[26][];
+
+	static {
+		for (char c = 'a'; c <= 'z'; c++) {
+			int count = 0;
+			for (INST inst : INST.values()) {
+				if (Character.toLowerCase(inst.name().charAt(0)) == c) {
+					count++;
+				}
+			}
+			MNEMONICS[c - 'a'] = new INST[count];
+			count = 0;
+			for (INST inst : INST.values()) {
+				if (Character.toLowerCase(inst.name().charAt(0)) == c) {
+					MNEMONICS[c - 'a'][count++] = inst;
+				}
+			}
+
+			count = 0;
+			for (String name : REGISTER_NAMES) {
+				if (name.charAt(0) == c) {
+					count++;
+				}
+			}
+			REGISTERS[c - 'a'] = new int[count];
+			count = 0;
+			for (int i = 0; i < REGISTER_NAMES.length; i++) {
+				if (REGISTER_NAMES[i].charAt(0) == c) {
+					REGISTERS[c - 'a'][count++] = i;
+				}
+			}
+		}
+	}
+
+	private char[] buf;
+	private int parts; // number of parts (label, mnemonic and arguments) separated by tabs or spaces
+	private int labelStart, labelEnd;
+	private int mnemonicStart, mnemonicEnd;
+	private int argc;
+	private int[] argStart = new int[4];
+	private int[] argEnd = new int[4];
+
+	/**
+	 * Splits the line.
+	 * 
+	 * @param buf
+	 *            the characters
+	 * @param start
+	 *            the index of the first character of the line
+	 * @param end
+	 *            the index after the last character of the line (excluding the line terminator)
+	 * @return false if the line has no code (e.g. empty or comment-only line)
+	 */
+	public boolean lex(char[] buf, int start, int end) {
+		this.buf = buf;
+		this.argc = 0;
+
+		// Remove comments
+		for (int i = start; i < end; i++) {
+			if (buf[i] == ';') {
+				end = i;
+				break;
+			}
+		}
+		if (trimStart(start, end) == end) {
+			return false; // empty line
+		}
+
+		// Split label (empty if it doesn't exist), code and arguments by the first two runs of tabs/spaces
+		int p = start;
+		while ((p < end) && !isBlank(buf[p])) {
+			p++;
+		}
+		labelStart = trimStart(start, p);
+		labelEnd = trimEnd(labelStart, p);
+		parts = 1;
+		if (p == end) {
+			return true;
+		}
+		while ((p < end) && isBlank(buf[p])) {
+			p++;
+		}
+		int q = p;
+		while ((q < end) && !isBlank(buf[q])) {
+			q++;
+		}
+		mnemonicStart = trimStart(p, q);
+		mnemonicEnd = trimEnd(mnemonicStart, q);
+		parts = 2;
+		if (q == end) {
+			return true;
+		}
+		while ((q < end) && isBlank(buf[q])) {
+			q++;
+		}
+		parts = 3;
+
+		// split arguments by comma (followed by tabs/spaces)
+		int a = trimStart(q, end);
+		int b = trimEnd(a, end);
+		if (a == b) {
+			addArgument(a, b);
+			return true;
+		}
+		while (true) {
+			int comma = a;
+			while ((comma < b) && (buf[comma] != ',')) {
+				comma++;
+			}
+			addArgument(a, comma);
+			if (comma == b) {
+				break;
+			}
+			a = comma + 1;
+			while ((a < b) && isBlank(buf[a])) {
+				a++;
+			}
+		}
+		// trailing empty arguments are ignored
+		while ((0 < argc) && (argStart[argc - 1] == argEnd[argc - 1])) {
+			argc--;
+		}
+		return true;
+	}
+
+	/**
+	 * Sets the arguments which are already split (the label and the mnemonic are cleared).
+	 * 
+	 * @param args
+	 *            the arguments
+	 */
+	public void setArguments(String[] args) {
+		int length = 0;
+		for (String arg : args) {
+			length += arg.length();
+		}
+		buf = new char[length];
+		parts = 3;
+		labelStart = labelEnd = mnemonicStart = mnemonicEnd = 0;
+		argc = 0;
+		int p = 0;
+		for (String arg : args) {
+			arg.getChars(0, arg.length(), buf, p);
+			addArgument(p, p + arg.length());
+			p += arg.length();
+		}
+	}
+
+	private void addArgument(int start, int end) {
+		if (argc == argStart.length) {
+			int[] newStart = new int[argc * 2];
+			int[] newEnd = new int[argc * 2];
+			System.arraycopy(argStart, 0, newStart, 0, argc);
+			System.arraycopy(argEnd, 0, newEnd, 0, argc);
+			argStart = newStart;
+			argEnd = newEnd;
+		}
+		argStart[argc] = start;
+		argEnd[argc] = end;
+		argc++;
+	}
+
+	/**
+	 * Returns the number of parts of the line separated by tabs or spaces (at most 3). A line with an instruction has
+	 * 3 parts (the first one is empty if there is no label), and a line with only a label has 1 part.
+	 * 
+	 * @return the number of parts
+	 */
+	public int getParts() {
+		return parts;
+	}
+
+	/**
+	 * Returns if the first part of the line is a label (i.e., it ends with ":").
+	 * 
+	 * @return true if the line has a label
+	 */
+	public boolean hasLabel() {
+		return (labelStart < labelEnd) && (buf[labelEnd - 1] == ':');
+	}
+
+	/**
+	 * Returns if the first part of the line is empty.
+	 * 
+	 * @return true if there is nothing before the mnemonic
+	 */
+	public boolean isLabelEmpty() {
+		return labelStart == labelEnd;
+	}
+
+	/**
+	 * Returns the label name (without ":").
+	 * 
+	 * @return the label name
+	 */
+	public String getLabel() {
+		return new String(buf, labelStart, labelEnd - labelStart - 1);
+	}
+
+	/**
+	 * Returns if the label name is in form of an integer.
+	 * 
+	 * @return true if the label name consists of numbers
+	 */
+	public boolean isLabelIntegerForm() {
+		return isIntegerForm(buf, labelStart, labelEnd - 1);
+	}
+
+	/**
+	 * Returns the first part of the line as it is.
+	 * 
+	 * @return the first part of the line
+	 */
+	public String getLabelPart() {
+		return new String(buf, labelStart, labelEnd - labelStart);
+	}
+
+	/**
+	 * Returns the kind of the instruction.
+	 * 
+	 * @return the INST object for the mnemonic (case insensitive), or null if there is no such instruction
+	 */
+	public INST getInst() {
+		if (mnemonicStart == mnemonicEnd) {
+			return null;
+		}
+		int c = (buf[mnemonicStart] | 0x20) - 'a';
+		if ((c < 0) || (26 <= c)) {
+			return null;
+		}
+		for (INST inst : MNEMONICS[c]) {
+			if (equalsIgnoreCase(inst.name(), mnemonicStart, mnemonicEnd)) {
+				return inst;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the mnemonic as it is.
+	 * 
+	 * @return the mnemonic
+	 */
+	public String getMnemonic() {
+		return new String(buf, mnemonicStart, mnemonicEnd - mnemonicStart);
+	}
+
+	/**
+	 * Returns the number of arguments.
+	 * 
+	 * @return the number of arguments
+	 */
+	public int getArgCount() {
+		return argc;
+	}
+
+	/**
+	 * Returns the argument.
+	 * 
+	 * @param i
+	 *            the index of the argument
+	 * @return the argument
+	 */
+	public String getArg(int i) {
+		return new String(buf, argStart[i], argEnd[i] - argStart[i]);
+	}
+
+	/**
+	 * Returns the register number for the argument (e.g., "$2" or "$ra").
+	 * 
+	 * @param i
+	 *            the index of the argument
+	 * @return the register number, or -1 if the register does not exist
+	 */
+	public int getRegister(int i) {
+		return parseRegister(buf, argStart[i], argEnd[i]);
+	}
+
+	/**
+	 * Returns the value of the argument (in decimal, octal or hexadecimal expression), ensuring that the absolute
+	 * value fits in <i>bits</i> bits.
+	 * 
+	 * @param i
+	 *            the index of the argument
+	 * @param bits
+	 *            the binary bits
+	 * @return the value, or {@link #INVALID} if the argument is not an integer or does not fit in <i>bits</i> bits
+	 */
+	public long getInteger(int i, int bits) {
+		return parseInteger(buf, argStart[i], argEnd[i], bits);
+	}
+
+	/**
+	 * Returns if the argument consists of numbers (with an optional minus sign).
+	 * 
+	 * @param i
+	 *            the index of the argument
+	 * @return true if the argument is in form of an integer
+	 */
+	public boolean isIntegerForm(int i) {
+		return isIntegerForm(buf, argStart[i], argEnd[i]);
+	}
+
+	/**
+	 * Returns if the argument is in form of "imm($rs)" with a numbered register.
+	 * 
+	 * @param i
+	 *            the index of the argument
+	 * @return true if the argument is a memory operand
+	 */
+	public boolean isMemoryOperand(int i) {
+		int start = argStart[i];
+		int p = argEnd[i] - 1;
+		if ((p < start) || (buf[p] != ')')) {
+			return false;
+		}
+		int digits = 0;
+		while ((start < p) && (digits < 2) && isDigit(buf[p - 1])) {
+			p--;
+			digits++;
+		}
+		// at least one character is needed before "($"
+		return (0 < digits) && (start + 3 <= p) && (buf[p - 1] == '$') && (buf[p - 2] == '(');
+	}
+
+	/**
+	 * Returns the register number in the memory operand (between the first "(" and the first ")").
+	 * 
+	 * @param i
+	 *            the index of the argument
+	 * @return the register number, or -1 if the register does not exist
+	 */
+	public int getBaseRegister(int i) {
+		int open = indexOf('(', argStart[i], argEnd[i]);
+		int close = indexOf(')', argStart[i], argEnd[i]);
+		if (close <= open) {
+			return -1;
+		}
+		return parseRegister(buf, open + 1, close);
+	}
+
+	/**
+	 * Returns the offset in the memory operand (before the first "("), ensuring that the absolute value fits in
+	 * <i>bits</i> bits.
+	 * 
+	 * @param i
+	 *            the index of the argument
+	 * @param bits
+	 *            the binary bits
+	 * @return the value, or {@link #INVALID} if the offset is not an integer or does not fit in <i>bits</i> bits
+	 */
+	public long getOffset(int i, int bits) {
+		return parseInteger(buf, argStart[i], indexOf('(', argStart[i], argEnd[i]), bits);
+	}
+
+	/**
+	 * Converts the register name into the register number.
+	 * 
+	 * @param buf
+	 *            the characters
+	 * @param start
+	 *            the index of the first character (which must be "$")
+	 * @param end
+	 *            the index after the last character
+	 * @return the register number, or -1 if the register does not exist
+	 */
+	public static int parseRegister(char[] buf, int start, int end) {
+		if ((end <= start) || (buf[start] != '$')) {
+			return -1;
+		}
+		start++;
+		if (start == end) {
+			return -1;
+		}
+		int c = buf[start] - 'a';
+		if ((0 <= c) && (c < 26)) {
+			// alias name
+			for (int r : REGISTERS[c]) {
+				String name = REGISTER_NAMES[r];
+				if ((end - start == name.length()) && matches(buf, start, name)) {
+					return r;
+				}
+			}
+			return -1;
+		}
+		// register number, with an optional sign as Integer.parseInt accepts
+		boolean negative = (buf[start] == '-');
+		if (negative || (buf[start] == '+')) {
+			start++;
+		}
+		if (start == end) {
+			return -1;
+		}
+		int r = 0;
+		for (int i = start; i < end; i++) {
+			if (!isDigit(buf[i])) {
+				return -1;
+			}
+			r = r * 10 + (buf[i] - '0');
+			if (32 <= r) {
+				// keep checking the digits, as a longer number is out of range anyway
+				r = 32;
+			}
+		}
+		if (negative && (r != 0)) {
+			return -1;
+		}
+		return (r < 32) ? r : -1;
+	}
+
+	/**
+	 * Converts the integer in decimal, octal ("0" prefix) or hexadecimal ("0x" or "#" prefix) expression, as
+	 * Integer.decode does, ensuring that the absolute value fits in <i>bits</i> bits.
+	 * 
+	 * @param buf
+	 *            the characters
+	 * @param start
+	 *            the index of the first character
+	 * @param end
+	 *            the index after the last character
+	 * @param bits
+	 *            the binary bits
+	 * @return the value, or {@link #INVALID} if the string is not an integer or does not fit in <i>bits</i> bits
+	 */
+	public static long parseInteger(char[] buf, int start, int end, int bits) {
+		if (end <= start) {
+			return INVALID;
+		}
+		int p = start;
+		boolean negative = false;
+		if ((buf[p] == '-') || (buf[p] == '+')) {
+			negative = (buf[p] == '-');
+			p++;
+		}
+		int radix = 10;
+		if ((p + 1 < end) && (buf[p] == '0') && ((buf[p + 1] == 'x') || (buf[p + 1] == 'X'))) {
+			radix = 16;
+			p += 2;
+		} else if ((p < end) && (buf[p] == '#')) {
+			radix = 16;
+			p++;
+		} else if ((p + 1 < end) && (buf[p] == '0')) {
+			radix = 8;
+			p++;
+		}
+		if (p == end) {
+			return INVALID;
+		}
+		long value = 0;
+		for (int i = p; i < end; i++) {
+			int digit = Character.digit(buf[i], radix);
+			if ((digit < 0) || (buf[i] > 'z')) {
+				return INVALID;
+			}
+			value = value * radix + digit;
+			if ((1L << 32) < value) {
+				return INVALID; // does not fit in int
+			}
+		}
+		if (negative) {
+			value = -value;
+		}
+		if ((value < Integer.MIN_VALUE) || (Integer.MAX_VALUE < value)) {
+			return INVALID;
+		}
+		int val = (int) value;
+		// Math.abs(Integer.MIN_VALUE) is negative, which is accepted for any bits as Utilites.dStrToInt did
+		if (Math.abs(val) < (1L << bits)) {
+			return val;
+		}
+		return INVALID;
+	}
+
+	/**
+	 * Returns if the string consists of numbers (with an optional minus sign).
+	 * 
+	 * @param buf
+	 *            the characters
+	 * @param start
+	 *            the index of the first character
+	 * @param end
+	 *            the index after the last character
+	 * @return true if the string is in form of an integer
+	 */
+	public static boolean isIntegerForm(char[] buf, int start, int end) {
+		if ((start < end) && (buf[start] == '-')) {
+			start++;
+		}
+		if (start == end) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			if (!isDigit(buf[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean matches(char[] buf, int start, String name) {
+		for (int i = 0; i < name.length(); i++) {
+			if (buf[start + i] != name.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean equalsIgnoreCase(String name, int start, int end) {
+		if (end - start != name.length()) {
+			return false;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			char c = buf[start + i];
+			if (('a' <= c) && (c <= 'z')) {
+				c -= 0x20;
+			}
+			if (c != name.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int indexOf(char c, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (buf[i] == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int trimStart(int start, int end) {
+		while ((start < end) && (buf[start] <= ' ')) {
+			start++;
+		}
+		return start;
+	}
+
+	private int trimEnd(int start, int end) {
+		while ((start < end) && (buf[end - 1] <= ' ')) {
+			end--;
+		}
+		return end;
+	}
+
+	private static boolean isBlank(char c) {
+		return (c == ' ') || (c == '\t');
+	}
+
+	private static boolean isDigit(char c) {
+		return ('0' <= c) && (c <= '9');
+	}
+}
@@ -1,7 +1,11 @@
 package mips.utils;
 
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
 import java.util.*;
-import java.util.regex.*;
+import java.util.concurrent.*;
 
 import mips.entity.Instruction;
 import mips.exception.*;
@@ -12,14 +16,19 @@ import mips.exception.*;
  * @author Kenichi Maehashi 
  */
 public class Utilites {
+	/**
+	 * The maximum number of errors reported by {@link #decodeInstruction(String, ForkJoinPool)}.
+	 */
+	public static final int MAX_REPORTED_ERRORS = 100;
 
-	// Alias names for registers
-	private static final String[] regname = new String[] { "zero", "at", "v0", "v1", "a0", "a1", "a2", "a3", "t0",
-			"t1", "t2", "t3", "t4", "t5", "t6", "t7", "s0", "s1", "s2", "s3", "s4", "s5", "s6", "s7", "t8", "t9", "k0",
-			"k1", "gp", "sp", "fp", "ra" };
+	// Digits of hexadecimal expression
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
 
-	// Binary code format (Altera-MIF)
-	private static final Pattern linePattern = Pattern.compile("\\s*([a-zA-Z0-9]+)\\s*:\\s*([a-zA-Z0-9]{8});.*");
+	// number of characters of binary code decoded by a task
+	private static final int DECODE_CHUNK = 1 << 18;
+
+	// number of words read from a binary image at once
+	private static final int IMAGE_CHUNK = 1 << 12;
 
 	/**
 	 * Gets the register number for the given string.
@@ -29,27 +38,12 @@ public class Utilites {
 	 * @return the register number. null when the register does not exist.
 	 */
 	public static Integer getRegisterNumber(String str) {
-		if (str.startsWith("$")) {
-			String reg = str.substring(1); // remove "$"
-			try {
-				int r = Integer.parseInt(reg, 10);
-				if ((0 <= r) && (r < 32)) {
-					return r;
-				}
-			} catch (NumberFormatException e) {
-				for (int i = 0; i < regname.length; i++) {
-					if (regname[i].equals(reg)) {
-						return i;
-					}
-				}
-				return null;
-			}
-		}
-		return null;
+		int r = Lexer.parseRegister(str.toCharArray(), 0, str.length());
+		return (r < 0) ? null : r;
 	}
 
 	/**
-	 * Decodes the binary code assembled by the Assembler.
+	 * Decodes the binary code assembled by the Assembler. Large code is decoded in parallel on the common pool.
 	 * 
 	 * @param src
 	 *            the binary code
@@ -58,28 +52,331 @@ public class Utilites {
 	 *             if there was a syntax error in the code
 	 * @throws InvalidInstructionException
 	 *             if there was a invalid instruction in the code
+	 * @see #decodeInstruction(String, ForkJoinPool)
 	 */
 	public static List<Instruction> decodeInstruction(String src) throws SyntaxException, InvalidInstructionException {
-		List<Instruction> instList = new ArrayList<Instruction>();
-		Scanner scanner = new Scanner(src);
-		int lineNo = 0;
-
-		while (scanner.hasNext()) {
-			lineNo++;
-			String line = scanner.nextLine();
-			Matcher m = linePattern.matcher(line);
-			if (m.matches()) {
-				String saddr = m.group(1);
-				String sinst = m.group(2);
-				Instruction inst = Instruction.createInstruction(sinst, lineNo, Integer.parseInt(saddr, 16) / 4);
-				instList.add(inst);
-			} else {
-				throw new SyntaxException("Invalid format (" + line + ")", lineNo);
+		return decodeInstruction(src, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Decodes the binary code assembled by the Assembler. The code is split into ranges of lines, which are decoded
+	 * concurrently on the pool into one array indexed by the line (which is the address in the binary code written by
+	 * the Assembler).
+	 * 
+	 * All the lines are decoded even if there are errors. The error on the first line is thrown, and the errors on the
+	 * following lines are attached to it as suppressed exceptions ({@link Throwable#getSuppressed()}), so that the
+	 * malformed lines can be reported at once. Only the first {@value #MAX_REPORTED_ERRORS} errors are kept; if there
+	 * are more, the last suppressed exception tells the number of the other errors.
+	 * 
+	 * @param src
+	 *            the binary code
+	 * @param pool
+	 *            the pool to decode the code
+	 * @return List of Instructions
+	 * @throws SyntaxException
+	 *             if there was a syntax error in the code
+	 * @throws InvalidInstructionException
+	 *             if there was a invalid instruction in the code
+	 */
+	public static List<Instruction> decodeInstruction(final String src, ForkJoinPool pool) throws SyntaxException,
+			InvalidInstructionException {
+		// the lines after the last token are ignored, as Scanner.hasNext() does
+		int end = src.length();
+		while ((0 < end) && Character.isWhitespace(src.charAt(end - 1))) {
+			end--;
+		}
+		if ((0 < end) && !isLineTerminator(src.charAt(end - 1))) {
+			while ((end < src.length()) && !isLineTerminator(src.charAt(end))) {
+				end++;
+			}
+		}
+
+		// split the code into ranges of lines
+		List<DecodeChunk> chunks = new ArrayList<DecodeChunk>();
+		for (int start = 0; start < end;) {
+			int next = (int) Math.min((long) start + DECODE_CHUNK, end);
+			while ((next < end) && !isLineTerminator(src.charAt(next - 1))) {
+				next++;
+			}
+			if ((next < end) && (src.charAt(next - 1) == '\r') && (src.charAt(next) == '\n')) {
+				next++;
+			}
+			chunks.add(new DecodeChunk(start, next));
+			start = next;
+		}
+
+		// count the lines to place the instructions
+		if (1 < chunks.size()) {
+			run(pool, chunks, new Callback() {
+				public void run(DecodeChunk chunk) {
+					chunk.countLines(src);
+				}
+			});
+		} else {
+			for (DecodeChunk chunk : chunks) {
+				chunk.countLines(src);
+			}
+		}
+		int lines = 0;
+		for (DecodeChunk chunk : chunks) {
+			chunk.firstLine = lines;
+			lines += chunk.lines;
+		}
+
+		// decode the lines
+		final Instruction[] instructions = new Instruction[lines];
+		if (1 < chunks.size()) {
+			run(pool, chunks, new Callback() {
+				public void run(DecodeChunk chunk) {
+					chunk.decode(src, instructions);
+				}
+			});
+		} else {
+			for (DecodeChunk chunk : chunks) {
+				chunk.decode(src, instructions);
+			}
+		}
+
+		// report the errors
+		Exception first = null;
+		int reported = 0, omitted = 0;
+		for (DecodeChunk chunk : chunks) {
+			for (Exception e : chunk.errors) {
+				if (first == null) {
+					first = e;
+				} else if (reported < MAX_REPORTED_ERRORS) {
+					first.addSuppressed(e);
+				} else {
+					omitted++;
+					continue;
+				}
+				reported++;
+			}
+			omitted += chunk.omitted;
+		}
+		if (0 < omitted) {
+			first.addSuppressed(new SyntaxException(omitted + " more errors"));
+		}
+		if (first instanceof SyntaxException) {
+			throw (SyntaxException) first;
+		} else if (first instanceof InvalidInstructionException) {
+			throw (InvalidInstructionException) first;
+		} else if (first instanceof RuntimeException) {
+			throw (RuntimeException) first;
+		}
+		return Arrays.asList(instructions);
+	}
+
+	private static boolean isLineTerminator(char c) {
+		return (c == '\n') || (c == '\r') || (c == '\u0085') || (c == '\u2028') || (c == '\u2029');
+	}
+
+	private static void run(ForkJoinPool pool, List<DecodeChunk> chunks, final Callback callback) {
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(chunks.size());
+		for (final DecodeChunk chunk : chunks) {
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					callback.run(chunk);
+					return null;
+				}
+			});
+		}
+		for (Future<Void> future : pool.invokeAll(tasks)) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new IllegalStateException(cause);
+			}
+		}
+	}
+
+	private static interface Callback {
+		void run(DecodeChunk chunk);
+	}
+
+	/**
+	 * A range of lines of the binary code.
+	 */
+	private static final class DecodeChunk {
+		private final int start, end; // the range in the code
+		private int firstLine; // number of lines before the chunk
+		private int lines; // number of lines
+		private final List<Exception> errors = new ArrayList<Exception>(0); // the first errors in the chunk
+		private int omitted; // number of the other errors
+
+		DecodeChunk(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		void countLines(String src) {
+			for (int p = start; p < end; p = nextLine(src, p)) {
+				lines++;
+			}
+		}
+
+		private int nextLine(String src, int p) {
+			while ((p < end) && !isLineTerminator(src.charAt(p))) {
+				p++;
+			}
+			if ((p + 1 < end) && (src.charAt(p) == '\r') && (src.charAt(p + 1) == '\n')) {
+				p++;
+			}
+			return p + 1;
+		}
+
+		void decode(String src, Instruction[] instructions) {
+			int lineNo = firstLine;
+			for (int p = start; p < end;) {
+				lineNo++;
+				int q = p;
+				while ((q < end) && !isLineTerminator(src.charAt(q))) {
+					q++;
+				}
+				try {
+					instructions[lineNo - 1] = decodeLine(src, p, q, lineNo);
+				} catch (Exception e) {
+					// no more errors than reported at most are kept, however many lines are malformed
+					if (errors.size() < MAX_REPORTED_ERRORS) {
+						errors.add(e);
+					} else {
+						omitted++;
+					}
+				}
+				p = nextLine(src, q);
+			}
+		}
+	}
+
+	/**
+	 * Decodes the line in the form of "\s*([a-zA-Z0-9]+)\s*:\s*([a-zA-Z0-9]{8});.*" (the address and the binary code).
+	 */
+	private static Instruction decodeLine(String src, int start, int end, int lineNo) throws SyntaxException,
+			InvalidInstructionException {
+		int p = skipSpaces(src, start, end);
+		int addrStart = p;
+		while ((p < end) && isAlphanumeric(src.charAt(p))) {
+			p++;
+		}
+		int addrEnd = p;
+		p = skipSpaces(src, p, end);
+		if ((addrStart < addrEnd) && (p < end) && (src.charAt(p) == ':')) {
+			int instStart = skipSpaces(src, p + 1, end);
+			int instEnd = instStart;
+			while ((instEnd < end) && (instEnd - instStart < 8) && isAlphanumeric(src.charAt(instEnd))) {
+				instEnd++;
+			}
+			if ((instEnd - instStart == 8) && (instEnd < end) && (src.charAt(instEnd) == ';')) {
+				String saddr = src.substring(addrStart, addrEnd);
+				String sinst = src.substring(instStart, instEnd);
+				return Instruction.createInstruction(sinst, lineNo, Integer.parseInt(saddr, 16) / 4);
+			}
+		}
+		throw new SyntaxException("Invalid format (" + src.substring(start, end) + ")", lineNo);
+	}
+
+	private static int skipSpaces(String src, int p, int end) {
+		while (p < end) {
+			char c = src.charAt(p);
+			if ((c != ' ') && (c != '\t') && (c != '\n') && (c != '\u000B') && (c != '\f') && (c != '\r')) {
+				break;
+			}
+			p++;
+		}
+		return p;
+	}
+
+	private static boolean isAlphanumeric(char c) {
+		return (('a' <= c) && (c <= 'z')) || (('A' <= c) && (c <= 'Z')) || (('0' <= c) && (c <= '9'));
+	}
+
+	/**
+	 * Decodes the binary image, in which each instruction is a word of 4 bytes in the byte order of the buffer. The
+	 * remaining bytes of the buffer are decoded without changing its position.
+	 * 
+	 * @param image
+	 *            the binary image (e.g., mapped by {@link #mapImage(Path, ByteOrder)})
+	 * @return List of Instructions (the line number of each instruction is its index in the image plus 1)
+	 * @throws SyntaxException
+	 *             if the size of the image was not a multiple of 4
+	 * @throws InvalidInstructionException
+	 *             if there was a invalid instruction in the image
+	 */
+	public static List<Instruction> decodeInstruction(ByteBuffer image) throws SyntaxException,
+			InvalidInstructionException {
+		IntBuffer words = asIntBuffer(image);
+		int size = words.remaining();
+		List<Instruction> instList = new ArrayList<Instruction>(size);
+		int[] chunk = new int[Math.min(size, IMAGE_CHUNK)];
+		for (int stepNo = 0; stepNo < size;) {
+			int n = Math.min(chunk.length, size - stepNo);
+			words.get(chunk, 0, n);
+			for (int i = 0; i < n; i++, stepNo++) {
+				instList.add(Instruction.createInstruction(chunk[i], stepNo + 1, stepNo));
 			}
 		}
 		return instList;
 	}
 
+	/**
+	 * Reads the words of the binary image without decoding them. The remaining bytes of the buffer are read without
+	 * changing its position.
+	 * 
+	 * @param image
+	 *            the binary image
+	 * @return the binary code of each instruction
+	 * @throws SyntaxException
+	 *             if the size of the image was not a multiple of 4
+	 */
+	public static int[] readWords(ByteBuffer image) throws SyntaxException {
+		IntBuffer buffer = asIntBuffer(image);
+		int[] words = new int[buffer.remaining()];
+		buffer.get(words);
+		return words;
+	}
+
+	private static IntBuffer asIntBuffer(ByteBuffer image) throws SyntaxException {
+		if ((image.remaining() & 3) != 0) {
+			throw new SyntaxException("Invalid image size (" + image.remaining() + " bytes)");
+		}
+		return image.duplicate().order(image.order()).asIntBuffer();
+	}
+
+	/**
+	 * Maps the binary image file into memory for reading.
+	 * 
+	 * @param file
+	 *            the binary image file
+	 * @param order
+	 *            the byte order of the words in the file
+	 * @return the mapped buffer
+	 * @throws IOException
+	 *             If the file could not be mapped
+	 */
+	public static ByteBuffer mapImage(Path file, ByteOrder order) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (Integer.MAX_VALUE < size) {
+				throw new IOException("Image is too large (" + size + " bytes)");
+			}
+			// the mapping stays valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(order);
+		} finally {
+			channel.close();
+		}
+	}
+
 	/**
 	 * Converts the string (in decimal expression) into integer, ensuring that the value fits in <i>bits</i> bits.
 	 * 
@@ -90,15 +387,8 @@ public class Utilites {
 	 * @return the converted Integer. null when the string does not fit in <i>bits</i> bits.
 	 */
 	public static Integer dStrToInt(String str, int bits) {
-		try {
-			int val = Integer.decode(str);
-			if (Math.abs(val) < Math.pow(2, bits)) {
-				return val;
-			}
-		} catch (NumberFormatException e) {
-			return null;
-		}
-		return null;
+		long val = Lexer.parseInteger(str.toCharArray(), 0, str.length(), bits);
+		return (val == Lexer.INVALID) ? null : (int) val;
 	}
 
 	/**
@@ -152,6 +442,22 @@ public class Utilites {
 		}
 	}
 
+	/**
+	 * Converts the binary code into hexadecimal expression in 8 chars.
+	 * 
+	 * @param word
+	 *            the binary code
+	 * @return the hexadecimal expression (in lower case)
+	 */
+	public static String wordToHexString(int word) {
+		char[] chars = new char[8];
+		for (int i = 7; 0 <= i; i--) {
+			chars[i] = HEX_DIGITS[word & 0xF];
+			word >>>= 4;
+		}
+		return new String(chars);
+	}
+
 	/**
 	 * Extends the integer.
 	 * 
@@ -183,7 +489,7 @@ public class Utilites {
 	 * @return true if the string consists of number
 	 */
 	public static boolean isIntegerForm(String str) {
-		return str.matches("-?\\d+");
+		return Lexer.isIntegerForm(str.toCharArray(), 0, str.length());
 	}
 
 	/**